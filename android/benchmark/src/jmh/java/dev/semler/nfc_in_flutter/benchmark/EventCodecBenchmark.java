@@ -0,0 +1,74 @@
+package dev.semler.nfc_in_flutter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dev.semler.nfc_in_flutter.codec.Hex;
+import dev.semler.nfc_in_flutter.codec.NdefDecoder;
+import dev.semler.nfc_in_flutter.codec.NdefFormatException;
+import dev.semler.nfc_in_flutter.codec.TagFrameEncoder;
+
+/**
+ * Building a tag event and serializing it with the standard message codec,
+ * as happens for every event sent to Dart, for the map and the frame wire
+ * formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventCodecBenchmark {
+    private static final String TAG_TYPE = "org.nfcforum.ndef.type2";
+
+    @Param({"1", "10", "50"})
+    public int records;
+
+    @Param({"16", "256", "8192"})
+    public int payloadSize;
+
+    private byte[] message;
+    private byte[] tagId;
+
+    @Setup
+    public void setUp() {
+        message = Messages.message(records, payloadSize);
+        tagId = Messages.tagId(7);
+    }
+
+    @Benchmark
+    public ByteBuffer mapEvent() throws NdefFormatException {
+        Map<String, Object> event = new HashMap<>();
+        event.put("id", Hex.encode(tagId));
+        event.put("type", TAG_TYPE);
+        event.put("writable", true);
+        event.put("message_type", "ndef");
+        event.put("records", NdefDecoder.decodeRecords(message, false));
+        return StandardCodecWriter.encodeMessage(event);
+    }
+
+    @Benchmark
+    public ByteBuffer lazyMapEvent() throws NdefFormatException {
+        Map<String, Object> event = new HashMap<>();
+        event.put("id", Hex.encode(tagId));
+        event.put("type", TAG_TYPE);
+        event.put("writable", true);
+        event.put("message_type", "ndef");
+        event.put("records", NdefDecoder.decodeRecords(message, true));
+        return StandardCodecWriter.encodeMessage(event);
+    }
+
+    @Benchmark
+    public ByteBuffer frameEvent() throws NdefFormatException {
+        return StandardCodecWriter.encodeMessage(TagFrameEncoder.encode(tagId, TAG_TYPE, true, message));
+    }
+}
@@ -0,0 +1,68 @@
+package dev.semler.nfc_in_flutter.benchmark;
+
+import java.io.IOException;
+
+import dev.semler.nfc_in_flutter.codec.Hex;
+import dev.semler.nfc_in_flutter.transport.MemoryTagTransport;
+import dev.semler.nfc_in_flutter.transport.Type2TagReader;
+
+/**
+ * FakeTag is a Type 2 tag in memory with simulated RF latency, standing in
+ * for android.nfc.Tag and android.nfc.tech.Ndef in benchmarks.
+ * <p>
+ * {@link #readNdef()} reads the message like Ndef.getNdefMessage() does on
+ * Type 2 tags, with 4-page READ commands only, and {@link #readType2()} like
+ * the plugin's fast Type 2 path, with FAST_READ. Connecting costs one
+ * command's latency, like the activation done by Ndef.connect().
+ */
+final class FakeTag {
+    private final byte[] id;
+    private final MemoryTagTransport ndefTransport;
+    private final MemoryTagTransport type2Transport;
+    private final long latencyNanos;
+
+    /**
+     * @param dataSize     the size of the tag's data area, e.g. 888 for a
+     *                     NTAG216
+     * @param latencyNanos the simulated latency of every command
+     */
+    FakeTag(byte[] id, byte[] message, int dataSize, long latencyNanos) {
+        this.id = id;
+        this.ndefTransport = MemoryTagTransport.type2(message, dataSize, false).setLatencyNanos(latencyNanos);
+        this.type2Transport = MemoryTagTransport.type2(message, dataSize, true).setLatencyNanos(latencyNanos);
+        this.latencyNanos = latencyNanos;
+    }
+
+    byte[] getId() {
+        return id;
+    }
+
+    String getIdHex() {
+        return Hex.encode(id);
+    }
+
+    byte[] readNdef() throws IOException {
+        return read(ndefTransport, false);
+    }
+
+    byte[] readType2() throws IOException {
+        return read(type2Transport, true);
+    }
+
+    private byte[] read(MemoryTagTransport transport, boolean fastRead) throws IOException {
+        activate();
+        transport.connect();
+        try {
+            return new Type2TagReader(transport, fastRead).readNdef();
+        } finally {
+            transport.close();
+        }
+    }
+
+    private void activate() {
+        long until = System.nanoTime() + latencyNanos;
+        while (System.nanoTime() < until) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dev.semler.nfc_in_flutter.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import dev.semler.nfc_in_flutter.codec.NdefDecoder;
+
+/**
+ * Messages builds serialized NDEF messages resembling what apps write to
+ * tags: a mix of text, URI and vendor MIME records.
+ */
+final class Messages {
+    private static final byte[] RTD_TEXT = {NdefDecoder.RTD_TEXT};
+    private static final byte[] RTD_URI = {NdefDecoder.RTD_URI};
+    private static final byte[] VENDOR_JSON = "application/vnd.example+json".getBytes(StandardCharsets.US_ASCII);
+
+    private Messages() {
+    }
+
+    /**
+     * @param payloadSize the size of every record's payload
+     */
+    static byte[] message(int records, int payloadSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < records; i++) {
+            int tnf;
+            byte[] type;
+            byte[] payload = filler(payloadSize, i);
+            switch (i % 3) {
+                case 0:
+                    // Status byte and "en"
+                    tnf = NdefDecoder.TNF_WELL_KNOWN;
+                    type = RTD_TEXT;
+                    payload[0] = 0x02;
+                    if (payloadSize >= 3) {
+                        payload[1] = 'e';
+                        payload[2] = 'n';
+                    }
+                    break;
+                case 1:
+                    // "https://"
+                    tnf = NdefDecoder.TNF_WELL_KNOWN;
+                    type = RTD_URI;
+                    payload[0] = 0x04;
+                    break;
+                default:
+                    tnf = NdefDecoder.TNF_MIME_MEDIA;
+                    type = VENDOR_JSON;
+                    break;
+            }
+            writeRecord(out, i == 0, i == records - 1, tnf, type, payload);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] filler(int size, int seed) {
+        byte[] payload = new byte[Math.max(size, 1)];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) ('a' + (i + seed) % 26);
+        }
+        return payload;
+    }
+
+    static void writeRecord(ByteArrayOutputStream out, boolean first, boolean last, int tnf, byte[] type, byte[] payload) {
+        boolean shortRecord = payload.length < 0x100;
+        int header = tnf | (first ? 0x80 : 0) | (last ? 0x40 : 0) | (shortRecord ? 0x10 : 0);
+        out.write(header);
+        out.write(type.length);
+        if (shortRecord) {
+            out.write(payload.length);
+        } else {
+            out.write(payload.length >>> 24);
+            out.write(payload.length >>> 16);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        }
+        out.write(type, 0, type.length);
+        out.write(payload, 0, payload.length);
+    }
+
+    /**
+     * @return a tag id of the given length, e.g. 7 for NTAG21x UIDs
+     */
+    static byte[] tagId(int length) {
+        byte[] id = new byte[length];
+        for (int i = 0; i < length; i++) {
+            id[i] = (byte) (0x04 + i * 37);
+        }
+        return id;
+    }
+
+    static byte[] text(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = Arrays.copyOf(new byte[]{0x02, 'e', 'n'}, 3 + bytes.length);
+        System.arraycopy(bytes, 0, payload, 3, bytes.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeRecord(out, true, true, NdefDecoder.TNF_WELL_KNOWN, RTD_TEXT, payload);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,71 @@
+package dev.semler.nfc_in_flutter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dev.semler.nfc_in_flutter.codec.ContentHash;
+import dev.semler.nfc_in_flutter.codec.NdefDecoder;
+import dev.semler.nfc_in_flutter.codec.NdefFormatException;
+import dev.semler.nfc_in_flutter.codec.RecordDecoderRegistry;
+import dev.semler.nfc_in_flutter.codec.TagFrameEncoder;
+
+/**
+ * Decoding a read message into each of the event formats the plugin sends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NdefDecodeBenchmark {
+    @Param({"1", "10", "50"})
+    public int records;
+
+    @Param({"16", "256", "8192"})
+    public int payloadSize;
+
+    private byte[] message;
+    private byte[] tagId;
+    private RecordDecoderRegistry registry;
+
+    @Setup
+    public void setUp() {
+        message = Messages.message(records, payloadSize);
+        tagId = Messages.tagId(7);
+        registry = RecordDecoderRegistry.withBuiltIns(Arrays.asList(RecordDecoderRegistry.TEXT, RecordDecoderRegistry.URI));
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> decodeEager() throws NdefFormatException {
+        return NdefDecoder.decodeRecords(message, false);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> decodeLazy() throws NdefFormatException {
+        return NdefDecoder.decodeRecords(message, true);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> decodeRegistry() throws NdefFormatException {
+        return registry.decodeRecords(message);
+    }
+
+    @Benchmark
+    public byte[] encodeFrame() throws NdefFormatException {
+        return TagFrameEncoder.encode(tagId, "org.nfcforum.ndef.type2", true, message);
+    }
+
+    @Benchmark
+    public long contentHash() {
+        return ContentHash.hash(message);
+    }
+}
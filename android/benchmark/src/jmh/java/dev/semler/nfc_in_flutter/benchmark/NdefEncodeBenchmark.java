@@ -0,0 +1,67 @@
+package dev.semler.nfc_in_flutter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dev.semler.nfc_in_flutter.codec.NdefFormatException;
+import dev.semler.nfc_in_flutter.codec.NdefStreamEncoder;
+import dev.semler.nfc_in_flutter.codec.NdefTemplate;
+
+/**
+ * Encoding on the write and streaming paths: rendering a provisioning
+ * template for a tag and splitting a message into stream events.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NdefEncodeBenchmark {
+    @Param({"1", "10", "50"})
+    public int records;
+
+    @Param({"16", "256", "8192"})
+    public int payloadSize;
+
+    private byte[] message;
+    private byte[] tagId;
+    private NdefTemplate template;
+    private long serial = 0;
+
+    @Setup
+    public void setUp() throws NdefFormatException {
+        message = Messages.message(records, payloadSize);
+        tagId = Messages.tagId(7);
+        List<NdefTemplate.Slot> slots = new ArrayList<>();
+        String payload = NdefTemplate.prepare("https://example.com/t/{{tag_id}}?n={{serial:8}}", slots);
+        template = NdefTemplate.compile(Messages.text(payload), slots);
+    }
+
+    @Benchmark
+    public byte[] renderTemplate() {
+        // Wrap before the serial outgrows its 8 digit slot
+        serial = (serial + 1) % 100000000;
+        return template.render(serial, tagId);
+    }
+
+    @Benchmark
+    public void streamEncode(final Blackhole blackhole) throws NdefFormatException {
+        NdefStreamEncoder.encode("04254A6F8E93B8", "org.nfcforum.ndef.type2", true, message, 1024,
+                new NdefStreamEncoder.EventSink() {
+                    @Override
+                    public void event(Map<String, Object> event) {
+                        blackhole.consume(event);
+                    }
+                });
+    }
+}
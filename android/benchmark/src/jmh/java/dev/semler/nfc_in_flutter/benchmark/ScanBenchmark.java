@@ -0,0 +1,75 @@
+package dev.semler.nfc_in_flutter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dev.semler.nfc_in_flutter.codec.NdefDecoder;
+import dev.semler.nfc_in_flutter.codec.NdefFormatException;
+import dev.semler.nfc_in_flutter.codec.TagFrameEncoder;
+
+/**
+ * End-to-end scans per second against a {@link FakeTag}: reading the tag,
+ * decoding the message and serializing the event for Dart.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScanBenchmark {
+    private static final String TAG_TYPE = "org.nfcforum.ndef.type2";
+    private static final int DATA_SIZE = 888; // NTAG216
+
+    // Per command, 0 measures the plugin's own overhead
+    @Param({"0", "500"})
+    public int latencyMicros;
+
+    @Param({"1", "5"})
+    public int records;
+
+    @Param({"16", "128"})
+    public int payloadSize;
+
+    private FakeTag tag;
+
+    @Setup
+    public void setUp() {
+        tag = new FakeTag(Messages.tagId(7), Messages.message(records, payloadSize), DATA_SIZE,
+                TimeUnit.MICROSECONDS.toNanos(latencyMicros));
+    }
+
+    @Benchmark
+    public ByteBuffer ndefMap() throws IOException, NdefFormatException {
+        return StandardCodecWriter.encodeMessage(mapEvent(tag.readNdef()));
+    }
+
+    @Benchmark
+    public ByteBuffer type2Map() throws IOException, NdefFormatException {
+        return StandardCodecWriter.encodeMessage(mapEvent(tag.readType2()));
+    }
+
+    @Benchmark
+    public ByteBuffer type2Frame() throws IOException, NdefFormatException {
+        return StandardCodecWriter.encodeMessage(TagFrameEncoder.encode(tag.getId(), TAG_TYPE, true, tag.readType2()));
+    }
+
+    private Map<String, Object> mapEvent(byte[] message) throws NdefFormatException {
+        Map<String, Object> event = new HashMap<>();
+        event.put("id", tag.getIdHex());
+        event.put("message_type", "ndef");
+        event.put("type", TAG_TYPE);
+        event.put("writable", true);
+        event.put("records", NdefDecoder.decodeRecords(message));
+        return event;
+    }
+}
@@ -0,0 +1,125 @@
+package dev.semler.nfc_in_flutter.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StandardCodecWriter writes values in the wire format of Flutter's
+ * StandardMessageCodec, for the types the plugin sends over its channels.
+ * The Flutter embedding can't be loaded on a plain JVM, so this mirrors its
+ * encoding, including the final copy into a direct buffer, to measure the
+ * cost of sending an event to Dart.
+ */
+final class StandardCodecWriter {
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 6;
+    private static final byte STRING = 7;
+    private static final byte BYTE_ARRAY = 8;
+    private static final byte LIST = 12;
+    private static final byte MAP = 13;
+
+    private StandardCodecWriter() {
+    }
+
+    static ByteBuffer encodeMessage(Object message) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        writeValue(stream, message);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(stream.size());
+        buffer.put(stream.toByteArray());
+        return buffer;
+    }
+
+    private static void writeValue(ByteArrayOutputStream stream, Object value) {
+        if (value == null) {
+            stream.write(NULL);
+        } else if (value instanceof Boolean) {
+            stream.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            stream.write(INT);
+            writeInt(stream, ((Number) value).intValue());
+        } else if (value instanceof Long) {
+            stream.write(LONG);
+            writeLong(stream, (Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            stream.write(DOUBLE);
+            writeAlignment(stream, 8);
+            writeLong(stream, Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof String) {
+            stream.write(STRING);
+            writeBytes(stream, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof byte[]) {
+            stream.write(BYTE_ARRAY);
+            writeBytes(stream, (byte[]) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            stream.write(LIST);
+            writeSize(stream, list.size());
+            for (Object element : list) {
+                writeValue(stream, element);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            stream.write(MAP);
+            writeSize(stream, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(stream, entry.getKey());
+                writeValue(stream, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value: " + value);
+        }
+    }
+
+    private static void writeSize(ByteArrayOutputStream stream, int value) {
+        if (value < 254) {
+            stream.write(value);
+        } else if (value <= 0xffff) {
+            stream.write(254);
+            writeChar(stream, value);
+        } else {
+            stream.write(255);
+            writeInt(stream, value);
+        }
+    }
+
+    private static void writeBytes(ByteArrayOutputStream stream, byte[] bytes) {
+        writeSize(stream, bytes.length);
+        stream.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeAlignment(ByteArrayOutputStream stream, int alignment) {
+        int mod = stream.size() % alignment;
+        if (mod != 0) {
+            for (int i = 0; i < alignment - mod; i++) {
+                stream.write(0);
+            }
+        }
+    }
+
+    // The codec writes in the platform's byte order, which is little endian
+    // on all Android devices
+    private static void writeChar(ByteArrayOutputStream stream, int value) {
+        stream.write(value);
+        stream.write(value >>> 8);
+    }
+
+    private static void writeInt(ByteArrayOutputStream stream, int value) {
+        stream.write(value);
+        stream.write(value >>> 8);
+        stream.write(value >>> 16);
+        stream.write(value >>> 24);
+    }
+
+    private static void writeLong(ByteArrayOutputStream stream, long value) {
+        for (int i = 0; i < 8; i++) {
+            stream.write((int) (value >>> (i * 8)));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package dev.semler.nfc_in_flutter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import dev.semler.nfc_in_flutter.codec.Hex;
+
+/**
+ * Formatting tag ids as hex, compared with the String.format approach the
+ * plugin used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TagIdBenchmark {
+    // 4 and 7 byte UIDs are the common ones, 10 byte UIDs are rare
+    @Param({"4", "7", "10"})
+    public int idLength;
+
+    private byte[] id;
+
+    @Setup
+    public void setUp() {
+        id = Messages.tagId(idLength);
+    }
+
+    @Benchmark
+    public String hex() {
+        return Hex.encode(id);
+    }
+
+    @Benchmark
+    public String legacyStringFormat() {
+        return String.format("%0" + (id.length * 2) + "X", new BigInteger(1, id));
+    }
+}
@@ -0,0 +1,97 @@
+package dev.semler.nfc_in_flutter;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.nfc.NfcAdapter;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * AdapterStateMonitor follows the state of the NFC adapter through
+ * ACTION_ADAPTER_STATE_CHANGED broadcasts and pushes every change to the
+ * adapter state event channel.
+ * <p>
+ * The receiver is registered for as long as the plugin is attached, so the
+ * plugin is told about changes even when Dart isn't listening. Broadcasts
+ * and stream callbacks are delivered on the main thread.
+ */
+class AdapterStateMonitor extends BroadcastReceiver implements EventChannel.StreamHandler {
+    static final String UNSUPPORTED = "unsupported";
+
+    /**
+     * Listener is told about every adapter state change.
+     */
+    interface Listener {
+        void onAdapterStateChanged(int state);
+    }
+
+    private final NfcAdapter adapter;
+    private final Listener listener;
+    private Context context;
+    private EventChannel.EventSink sink;
+
+    /**
+     * @param adapter the device's adapter, or null if it doesn't have NFC
+     */
+    AdapterStateMonitor(NfcAdapter adapter, Listener listener) {
+        this.adapter = adapter;
+        this.listener = listener;
+    }
+
+    void start(Context context) {
+        if (adapter == null || this.context != null) {
+            return;
+        }
+        this.context = context;
+        context.registerReceiver(this, new IntentFilter(NfcAdapter.ACTION_ADAPTER_STATE_CHANGED));
+    }
+
+    void stop() {
+        if (context == null) {
+            return;
+        }
+        context.unregisterReceiver(this);
+        context = null;
+    }
+
+    static String stateName(int state) {
+        switch (state) {
+            case NfcAdapter.STATE_ON:
+                return "on";
+            case NfcAdapter.STATE_TURNING_ON:
+                return "turning_on";
+            case NfcAdapter.STATE_TURNING_OFF:
+                return "turning_off";
+            default:
+                return "off";
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        int state = intent.getIntExtra(NfcAdapter.EXTRA_ADAPTER_STATE, NfcAdapter.STATE_OFF);
+        listener.onAdapterStateChanged(state);
+        if (sink != null) {
+            sink.success(stateName(state));
+        }
+    }
+
+    @Override
+    public void onListen(Object args, EventChannel.EventSink eventSink) {
+        sink = eventSink;
+        // Start with the current state. The transitional states aren't
+        // public before they are broadcast, so on and off are enough here.
+        if (adapter == null) {
+            eventSink.success(UNSUPPORTED);
+        } else {
+            eventSink.success(stateName(adapter.isEnabled() ? NfcAdapter.STATE_ON : NfcAdapter.STATE_OFF));
+        }
+    }
+
+    @Override
+    public void onCancel(Object args) {
+        sink = null;
+    }
+}
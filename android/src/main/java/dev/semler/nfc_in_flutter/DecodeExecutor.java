@@ -0,0 +1,84 @@
+package dev.semler.nfc_in_flutter;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DecodeExecutor runs the decode stage of tag reads: turning the raw NDEF
+ * bytes read from a tag into an event and handing it to the dispatcher. It
+ * is a single worker with a bounded queue, so the NFC I/O thread can go back
+ * to the radio as soon as a tag's bytes have been read.
+ * <p>
+ * Tags are decoded one at a time, so they are delivered in the order they
+ * were read. Tags never decode on the submitting thread, which is the NFC I/O
+ * thread or the main thread. When the queue is full, a tag is dropped
+ * following the dispatcher's queue policy instead, as if it didn't fit in
+ * the dispatcher's own queue.
+ */
+class DecodeExecutor {
+    private static final String LOG_TAG = "NfcInFlutterPlugin";
+
+    private final ThreadPoolExecutor executor;
+
+    DecodeExecutor(int queueCapacity, final TagEventDispatcher dispatcher) {
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "nfc_in_flutter-decode-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            return;
+                        }
+                        if (dispatcher.dropBeforeQueue()) {
+                            executor.getQueue().poll();
+                            executor.execute(runnable);
+                        }
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param dispatcher the dispatcher decoded tags are delivered to, whose
+     *                   queue policy decides which tags to drop
+     */
+    static DecodeExecutor create(TagEventDispatcher dispatcher) {
+        return new DecodeExecutor(32, dispatcher);
+    }
+
+    /**
+     * Runs {@code runnable} on the decode worker. Uncaught exceptions are
+     * logged so they don't silently kill the worker.
+     */
+    void execute(final Runnable runnable) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "nfc decode error: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,81 @@
+package dev.semler.nfc_in_flutter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram is a lock-free histogram of durations with fixed,
+ * power-of-two microsecond buckets. Bucket i counts durations below 2^i
+ * microseconds, so percentiles are reported as the upper bound of the bucket
+ * they fall in, within a factor of two of the real value.
+ */
+class LatencyHistogram {
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get())) {
+            if (maxMicros.compareAndSet(max, micros)) {
+                break;
+            }
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    /**
+     * @return the upper bound in microseconds of the bucket holding the given
+     * percentile, or 0 if nothing has been recorded
+     */
+    long percentileMicros(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>(8);
+        long n = count.get();
+        map.put("count", n);
+        map.put("mean_us", n == 0 ? 0 : totalMicros.get() / n);
+        map.put("max_us", maxMicros.get());
+        map.put("p50_us", percentileMicros(50));
+        map.put("p90_us", percentileMicros(90));
+        map.put("p99_us", percentileMicros(99));
+        return map;
+    }
+}
@@ -0,0 +1,39 @@
+package dev.semler.nfc_in_flutter;
+
+import android.nfc.tech.NfcA;
+
+import java.io.IOException;
+
+import dev.semler.nfc_in_flutter.transport.TagTransport;
+
+/**
+ * NfcATagTransport is a {@link TagTransport} backed by Android's NfcA
+ * technology.
+ */
+class NfcATagTransport implements TagTransport {
+    private final NfcA nfcA;
+
+    NfcATagTransport(NfcA nfcA) {
+        this.nfcA = nfcA;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        nfcA.connect();
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        return nfcA.transceive(command);
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return nfcA.getMaxTransceiveLength();
+    }
+
+    @Override
+    public void close() throws IOException {
+        nfcA.close();
+    }
+}
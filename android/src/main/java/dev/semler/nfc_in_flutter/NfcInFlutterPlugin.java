@@ -2,32 +2,59 @@ package dev.semler.nfc_in_flutter;
 
 import android.app.Activity;
 import android.app.PendingIntent;
+import android.content.Context;
 import android.content.Intent;
 import android.nfc.FormatException;
 import android.nfc.NdefMessage;
 import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
+import android.nfc.TagLostException;
 import android.nfc.tech.Ndef;
 import android.nfc.tech.NdefFormatable;
-import android.os.AsyncTask;
+import android.nfc.tech.NfcA;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.File;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import dev.semler.nfc_in_flutter.codec.ContentHash;
+import dev.semler.nfc_in_flutter.codec.DecodeCache;
+import dev.semler.nfc_in_flutter.codec.Hex;
+import dev.semler.nfc_in_flutter.codec.NdefDecoder;
+import dev.semler.nfc_in_flutter.codec.NdefFormatException;
+import dev.semler.nfc_in_flutter.codec.NdefStreamEncoder;
+import dev.semler.nfc_in_flutter.codec.NdefTemplate;
+import dev.semler.nfc_in_flutter.codec.TagFilter;
+import dev.semler.nfc_in_flutter.codec.TagFrameEncoder;
+import dev.semler.nfc_in_flutter.journal.JournalEntry;
+import dev.semler.nfc_in_flutter.journal.ScanJournal;
+import dev.semler.nfc_in_flutter.transport.TagTransport;
+import dev.semler.nfc_in_flutter.transport.Type2TagReader;
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.embedding.engine.plugins.activity.ActivityAware;
+import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
@@ -35,41 +62,209 @@ import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.plugin.common.PluginRegistry;
 import io.flutter.plugin.common.PluginRegistry.Registrar;
+import io.flutter.plugin.common.StandardMethodCodec;
 
 /**
  * NfcInFlutterPlugin
  */
-public class NfcInFlutterPlugin implements MethodCallHandler,
+public class NfcInFlutterPlugin implements FlutterPlugin,
+        ActivityAware,
+        MethodCallHandler,
         EventChannel.StreamHandler,
         PluginRegistry.NewIntentListener,
         NfcAdapter.ReaderCallback {
 
-    private static final String NORMAL_READER_MODE = "normal";
-    private static final String DISPATCH_READER_MODE = "dispatch";
+    private static final String NORMAL_READER_MODE = ReaderState.NORMAL_MODE;
+    private static final String DISPATCH_READER_MODE = ReaderState.DISPATCH_MODE;
     private final int DEFAULT_READER_FLAGS = NfcAdapter.FLAG_READER_NFC_A | NfcAdapter.FLAG_READER_NFC_B | NfcAdapter.FLAG_READER_NFC_F | NfcAdapter.FLAG_READER_NFC_V;
     private static final String LOG_TAG = "NfcInFlutterPlugin";
 
-    private final Activity activity;
+    private Context context;
+    // The activity the plugin is attached to, or null while detached. Set
+    // on the main thread.
+    private volatile Activity activity;
+    private ActivityPluginBinding activityBinding;
+    private MethodChannel channel;
+    private EventChannel tagChannel;
+    private EventChannel provisioningChannel;
+    private EventChannel adapterStateChannel;
+    private final Handler mainThread = new Handler(Looper.getMainLooper());
+    // Looked up once when the plugin is attached, null if the device
+    // doesn't have NFC
     private NfcAdapter adapter;
-    private EventChannel.EventSink events;
+    private AdapterStateMonitor adapterState;
+    // Set and cleared on the main thread, read from any thread
+    private volatile EventChannel.EventSink events;
+    private final ScanStats stats = new ScanStats();
+    private final TagEventDispatcher dispatcher = new TagEventDispatcher(stats);
 
-    private String currentReaderMode = null;
-    private Tag lastTag = null;
+    private final ReaderState readerState = new ReaderState();
+    private boolean noPlatformSounds = false;
+    // The reading options in use. Tags are read and decoded with a single
+    // snapshot of it.
+    private volatile ReadingConfig readingConfig = ReadingConfig.DEFAULT;
+    // Subscriptions to the tag stream that started reading with options.
+    // Other options are rejected while any of them is reading. Only
+    // accessed on the main thread.
+    private final Set<Integer> optionSubscriptions = new HashSet<>();
+    // Only used for operations that don't say which tag they are for
+    private volatile Tag lastTag = null;
+    // Delivered tags stay findable by id until they are lost or 64 other
+    // tags have been delivered, enough for a full queue and batch of events
+    // still on their way to Dart
+    private final TagIdCache tagIds = new TagIdCache(4, 64);
+    private final NfcIoExecutor io = new NfcIoExecutor();
+    private final DecodeExecutor decoder = DecodeExecutor.create(dispatcher);
+    private final TagDeduplicator deduplicator = new TagDeduplicator();
+    private final TagEventDispatcher provisioningDispatcher = new TagEventDispatcher(null);
+    private volatile ProvisioningSession provisioning = null;
+    // Open tag sessions by handle, and why the last sessions closed by the
+    // plugin were closed, so Dart is told the reason. Only accessed on the
+    // NFC I/O thread.
+    private final Map<Integer, TagSession> sessions = new HashMap<>();
+    private final LinkedHashMap<Integer, String> closedSessions = new LinkedHashMap<>();
+    private int nextSessionHandle = 1;
+    private volatile ScanJournal journal = null;
+    // Filters of the Dart subscriptions to the tag stream, by subscription.
+    // Tags are delivered if any filter matches them.
+    private final Map<Integer, TagFilter> tagFilters = new ConcurrentHashMap<>();
+    private final AtomicLong filteredTags = new AtomicLong();
 
     /**
-     * Plugin registration.
+     * Plugin registration for the v1 embedding. Method calls are handled on
+     * the main thread.
      */
     public static void registerWith(Registrar registrar) {
-        final MethodChannel channel = new MethodChannel(registrar.messenger(), "nfc_in_flutter");
-        final EventChannel tagChannel = new EventChannel(registrar.messenger(), "nfc_in_flutter/tags");
-        NfcInFlutterPlugin plugin = new NfcInFlutterPlugin(registrar.activity());
+        NfcInFlutterPlugin plugin = new NfcInFlutterPlugin();
+        plugin.activity = registrar.activity();
         registrar.addNewIntentListener(plugin);
-        channel.setMethodCallHandler(plugin);
-        tagChannel.setStreamHandler(plugin);
+        plugin.attach(registrar.context().getApplicationContext(), registrar.messenger(), null);
     }
 
-    private NfcInFlutterPlugin(Activity activity) {
-        this.activity = activity;
+    public NfcInFlutterPlugin() {
+        dispatcher.setReaderControl(new TagEventDispatcher.ReaderControl() {
+            @Override
+            public void pauseReader() {
+                stopReading();
+            }
+
+            @Override
+            public void resumeReader() {
+                // Don't resume if reading was stopped while paused
+                if (events != null) {
+                    restartReading();
+                }
+            }
+        });
+    }
+
+    /**
+     * @param taskQueue the queue method calls are handled on, or null for
+     *                  the main thread
+     */
+    private void attach(Context context, BinaryMessenger messenger, BinaryMessenger.TaskQueue taskQueue) {
+        this.context = context;
+        adapter = NfcAdapter.getDefaultAdapter(context);
+        adapterState = new AdapterStateMonitor(adapter, new AdapterStateMonitor.Listener() {
+            @Override
+            public void onAdapterStateChanged(int state) {
+                // Android forgets the reader mode when NFC is turned off, so
+                // reading is re-armed as soon as it is back on
+                if (state == NfcAdapter.STATE_ON && (events != null || provisioning != null)) {
+                    restartReading();
+                }
+            }
+        });
+        adapterState.start(context);
+
+        channel = taskQueue != null
+                ? new MethodChannel(messenger, "nfc_in_flutter", StandardMethodCodec.INSTANCE, taskQueue)
+                : new MethodChannel(messenger, "nfc_in_flutter");
+        tagChannel = new EventChannel(messenger, "nfc_in_flutter/tags");
+        provisioningChannel = new EventChannel(messenger, "nfc_in_flutter/provisioning");
+        adapterStateChannel = new EventChannel(messenger, "nfc_in_flutter/adapter_state");
+        channel.setMethodCallHandler(this);
+        tagChannel.setStreamHandler(this);
+        provisioningChannel.setStreamHandler(provisioningDispatcher);
+        adapterStateChannel.setStreamHandler(adapterState);
+    }
+
+    @Override
+    public void onAttachedToEngine(FlutterPluginBinding binding) {
+        BinaryMessenger messenger = binding.getBinaryMessenger();
+        // Method calls are decoded and handled off the main thread, so tag
+        // I/O and journal queries never hold up frames
+        attach(binding.getApplicationContext(), messenger, messenger.makeBackgroundTaskQueue());
+    }
+
+    @Override
+    public void onDetachedFromEngine(FlutterPluginBinding binding) {
+        channel.setMethodCallHandler(null);
+        tagChannel.setStreamHandler(null);
+        provisioningChannel.setStreamHandler(null);
+        adapterStateChannel.setStreamHandler(null);
+        adapterState.stop();
+        channel = null;
+        tagChannel = null;
+        provisioningChannel = null;
+        adapterStateChannel = null;
+
+        // Nothing may outlive the engine: the reader, open tag connections,
+        // the journal and the threads
+        events = null;
+        provisioning = null;
+        stopReading();
+        readerState.releaseMode();
+        tagFilters.clear();
+        optionSubscriptions.clear();
+        dispatcher.setSink(null);
+        provisioningDispatcher.setSink(null);
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (TagSession session : sessions.values()) {
+                    session.close(TagSession.CLOSED);
+                }
+                sessions.clear();
+                ScanJournal current = journal;
+                journal = null;
+                if (current != null) {
+                    current.close();
+                }
+            }
+        });
+        io.shutdown();
+        decoder.shutdown();
+    }
+
+    @Override
+    public void onAttachedToActivity(ActivityPluginBinding binding) {
+        activityBinding = binding;
+        activity = binding.getActivity();
+        binding.addOnNewIntentListener(this);
+        // Resume reading started before the activity was attached or
+        // recreated
+        if (events != null) {
+            restartReading();
+        }
+    }
+
+    @Override
+    public void onDetachedFromActivityForConfigChanges() {
+        onDetachedFromActivity();
+    }
+
+    @Override
+    public void onReattachedToActivityForConfigChanges(ActivityPluginBinding binding) {
+        onAttachedToActivity(binding);
+    }
+
+    @Override
+    public void onDetachedFromActivity() {
+        stopReading();
+        activityBinding.removeOnNewIntentListener(this);
+        activityBinding = null;
+        activity = null;
     }
 
     @Override
@@ -83,33 +278,50 @@ public class NfcInFlutterPlugin implements MethodCallHandler,
                     result.error("MissingArguments", "startNDEFReading was called with no arguments", "");
                     return;
                 }
-                HashMap args = (HashMap) call.arguments;
-                String readerMode = (String) args.get("reader_mode");
+                final HashMap args = (HashMap) call.arguments;
+                final String readerMode = (String) args.get("reader_mode");
                 if (readerMode == null) {
                     result.error("MissingReaderMode", "startNDEFReading was called without a reader mode", "");
                     return;
                 }
 
-                if (currentReaderMode != null && !readerMode.equals(currentReaderMode)) {
-                    // Throw error if the user tries to start reading with another reading mode
-                    // than the one currently active
-                    result.error("NFCMultipleReaderModes", "multiple reader modes", "");
+                if (!readerMode.equals(NORMAL_READER_MODE) && !readerMode.equals(DISPATCH_READER_MODE)) {
+                    result.error("NFCUnknownReaderMode", "unknown reader mode: " + readerMode, "");
                     return;
                 }
-                currentReaderMode = readerMode;
-                switch (readerMode) {
-                    case NORMAL_READER_MODE:
-                        boolean noSounds = (boolean) args.get("no_platform_sounds");
-                        startReading(noSounds);
-                        break;
-                    case DISPATCH_READER_MODE:
-                        startReadingWithForegroundDispatch();
-                        break;
-                    default:
-                        result.error("NFCUnknownReaderMode", "unknown reader mode: " + readerMode, "");
-                        return;
+                Object options = args.get("options");
+                Object filterMap = args.get("filter");
+                final ReadingConfig config;
+                final TagFilter filter;
+                final Number readingSubscription;
+                try {
+                    config = options instanceof Map ? ReadingConfig.fromMap((Map<?, ?>) options) : null;
+                    filter = TagFilter.fromMap(filterMap instanceof Map ? (Map<?, ?>) filterMap : Collections.emptyMap());
+                    readingSubscription = (Number) args.get("subscription");
+                } catch (IllegalArgumentException | ClassCastException e) {
+                    result.error("NFCInvalidArguments", e.getMessage(), null);
+                    return;
                 }
-                result.success(null);
+                final boolean noSounds = Boolean.TRUE.equals(args.get("no_platform_sounds"));
+                final Result startResult = result;
+                // The reader mode is only claimed and released on the main
+                // thread, so a start is always ordered after the cancel of
+                // an earlier stream. The reader is enabled there too, as the
+                // activity requires.
+                mainThread.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!claimReading(readerMode, readingSubscription, config, filter, startResult)) {
+                            return;
+                        }
+                        if (readerMode.equals(NORMAL_READER_MODE)) {
+                            startReading(noSounds);
+                        } else {
+                            startReadingWithForegroundDispatch();
+                        }
+                        startResult.success(null);
+                    }
+                });
                 break;
             case "writeNDEF":
                 HashMap writeArgs = call.arguments();
@@ -117,44 +329,209 @@ public class NfcInFlutterPlugin implements MethodCallHandler,
                     result.error("NFCMissingArguments", "missing arguments", null);
                     break;
                 }
+                Map messageMap = (Map) writeArgs.get("message");
+                if (messageMap == null) {
+                    result.error("NFCMissingNDEFMessage", "a ndef message was not given", null);
+                    break;
+                }
+                Tag writeTag;
                 try {
-                    Map messageMap = (Map) writeArgs.get("message");
-                    if (messageMap == null) {
-                        result.error("NFCMissingNDEFMessage", "a ndef message was not given", null);
-                        break;
-                    }
-                    NdefMessage message = formatMapToNDEFMessage(messageMap);
-                    writeNDEF(message);
-                    result.success(null);
+                    writeTag = findTag((String) writeArgs.get("id"));
                 } catch (NfcInFlutterException e) {
                     result.error(e.code, e.message, e.details);
+                    break;
                 }
+                submitWrite(writeTag,
+                        formatMapToNDEFMessage(messageMap),
+                        Boolean.TRUE.equals(writeArgs.get("skip_if_identical")),
+                        result);
+                break;
+            case "writeRawNDEF":
+                writeRawNDEF(call, result);
+                break;
+            case "startProvisioning":
+                startProvisioning(call, result);
+                break;
+            case "stopProvisioning":
+                stopProvisioning(result);
+                break;
+            case "openSession":
+                openSession(call, result);
+                break;
+            case "sessionReadNDEF":
+            case "sessionWriteNDEF":
+            case "sessionTransceive":
+            case "closeSession":
+                handleSessionCall(call, result);
+                break;
+            case "enableJournal":
+                enableJournal(call, result);
+                break;
+            case "disableJournal":
+                io.submit(new NfcIoExecutor.IoTask() {
+                    @Override
+                    public Object run() {
+                        ScanJournal current = journal;
+                        journal = null;
+                        if (current != null) {
+                            current.close();
+                        }
+                        return null;
+                    }
+                }, result);
+                break;
+            case "queryJournal":
+            case "replayJournal":
+                queryJournal(call, result);
+                break;
+            case "getStats":
+                Map<String, Object> statsMap = stats.toMap();
+                statsMap.put("suppressed", deduplicator.suppressedCount());
+                statsMap.put("filtered", filteredTags.get());
+                dispatcher.putQueueStats(statsMap);
+                DecodeCache cache = readingConfig.decodeCache;
+                if (cache != null) {
+                    cache.putStats(statsMap);
+                }
+                statsMap.put("reader_state", ReaderState.phaseName(readerState.phase()));
+                statsMap.put("writes_in_flight", readerState.writesInFlight());
+                result.success(statsMap);
+                break;
+            case "resetStats":
+                stats.reset();
+                dispatcher.resetQueueStats();
+                DecodeCache currentCache = readingConfig.decodeCache;
+                if (currentCache != null) {
+                    currentCache.resetStats();
+                }
+                filteredTags.set(0);
+                result.success(null);
+                break;
+            case "removeTagFilter":
+                final Number subscription = call.argument("subscription");
+                final Result removeResult = result;
+                // Ordered after the start of the subscription
+                mainThread.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (subscription != null) {
+                            releaseSubscription(subscription.intValue());
+                        }
+                        removeResult.success(null);
+                    }
+                });
+                break;
+            case "pauseEvents":
+                dispatcher.pause();
+                result.success(null);
+                break;
+            case "resumeEvents":
+                dispatcher.resume();
+                result.success(null);
+                break;
+            case "getSuppressedReadCount":
+                result.success(deduplicator.suppressedCount());
                 break;
             default:
                 result.notImplemented();
         }
     }
 
+    /**
+     * claimReading claims the reader mode for a subscription and applies its
+     * reading options and filter. Nothing is changed if the mode can't be
+     * claimed or the options conflict with the ones in use. A start without
+     * options reads with the options in use. Must be called on the main
+     * thread.
+     *
+     * @param config the subscription's options, or null
+     * @return false if the start was rejected and result has been given an
+     * error
+     */
+    private boolean claimReading(String readerMode, Number subscription, ReadingConfig config, TagFilter filter, Result result) {
+        ReadingConfig current = readingConfig;
+        if (config != null && !config.equals(current) && hasOtherOptionSubscriptions(subscription)) {
+            result.error("NFCConflictingOptions",
+                    "reading was started with options that differ from the ones in use", null);
+            return false;
+        }
+        if (!readerState.claimMode(readerMode)) {
+            // Throw error if the user tries to start reading with another reading mode
+            // than the one currently active
+            result.error("NFCMultipleReaderModes", "multiple reader modes", "");
+            return false;
+        }
+        if (config != null) {
+            applyReadingConfig(current, config);
+            if (subscription != null) {
+                optionSubscriptions.add(subscription.intValue());
+            }
+        }
+        if (subscription != null) {
+            tagFilters.put(subscription.intValue(), filter);
+        }
+        return true;
+    }
+
+    private boolean hasOtherOptionSubscriptions(Number subscription) {
+        for (Integer other : optionSubscriptions) {
+            if (subscription == null || other != subscription.intValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * applyReadingConfig replaces the reading options in use. Only the parts
+     * that changed are reset, so an unchanged deduplicator keeps the tags it
+     * has seen and an unchanged decode cache stays warm.
+     */
+    private void applyReadingConfig(ReadingConfig current, ReadingConfig config) {
+        if (config.equals(current)) {
+            return;
+        }
+        if (config.maxBatchSize != current.maxBatchSize || config.maxBatchLatencyMillis != current.maxBatchLatencyMillis) {
+            dispatcher.configure(config.maxBatchSize, config.maxBatchLatencyMillis);
+        }
+        if (config.queueCapacity != current.queueCapacity || config.queuePolicy != current.queuePolicy) {
+            dispatcher.configureQueue(config.queueCapacity, config.queuePolicy);
+        }
+        if (config.dedupTTLMillis != current.dedupTTLMillis || config.dedupByContent != current.dedupByContent) {
+            deduplicator.configure(config.dedupTTLMillis, config.dedupByContent);
+        }
+        readingConfig = config.keepingCacheOf(current);
+    }
+
+    /**
+     * releaseSubscription forgets a subscription's filter and options. Must
+     * be called on the main thread.
+     */
+    private void releaseSubscription(int subscription) {
+        tagFilters.remove(subscription);
+        optionSubscriptions.remove(subscription);
+    }
+
     private Boolean nfcIsEnabled() {
-        NfcAdapter adapter = NfcAdapter.getDefaultAdapter(activity);
         if (adapter == null) return false;
         return adapter.isEnabled();
     }
 
     private void startReading(boolean noSounds) {
-        adapter = NfcAdapter.getDefaultAdapter(activity);
-        if (adapter == null) return;
+        noPlatformSounds = noSounds;
+        // Reading starts when an activity is attached
+        if (adapter == null || activity == null) return;
         Bundle bundle = new Bundle();
         int flags = DEFAULT_READER_FLAGS;
         if (noSounds) {
             flags = flags | NfcAdapter.FLAG_READER_NO_PLATFORM_SOUNDS;
         }
         adapter.enableReaderMode(activity, this, flags, bundle);
+        readerState.readerStarted();
     }
 
     private void startReadingWithForegroundDispatch() {
-        adapter = NfcAdapter.getDefaultAdapter(activity);
-        if (adapter == null) return;
+        if (adapter == null || activity == null) return;
         Intent intent = new Intent(activity.getApplicationContext(), activity.getClass());
         intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
 
@@ -162,69 +539,259 @@ public class NfcInFlutterPlugin implements MethodCallHandler,
         String[][] techList = new String[][]{};
 
         adapter.enableForegroundDispatch(activity, pendingIntent, null, techList);
+        readerState.readerStarted();
+    }
+
+    /**
+     * stopReading disables the current reader mode, without forgetting it.
+     */
+    private void stopReading() {
+        String mode = readerState.mode();
+        if (adapter == null || activity == null || mode == null) {
+            return;
+        }
+        readerState.readerStopped();
+        switch (mode) {
+            case NORMAL_READER_MODE:
+                adapter.disableReaderMode(activity);
+                break;
+            case DISPATCH_READER_MODE:
+                adapter.disableForegroundDispatch(activity);
+                break;
+        }
+    }
+
+    /**
+     * restartReading enables the current reader mode again after
+     * stopReading.
+     */
+    private void restartReading() {
+        String mode = readerState.mode();
+        if (mode == null) {
+            return;
+        }
+        switch (mode) {
+            case NORMAL_READER_MODE:
+                startReading(noPlatformSounds);
+                break;
+            case DISPATCH_READER_MODE:
+                startReadingWithForegroundDispatch();
+                break;
+        }
     }
 
     @Override
     public void onListen(Object args, EventChannel.EventSink eventSink) {
         events = eventSink;
+        dispatcher.setSink(eventSink);
     }
 
     @Override
     public void onCancel(Object args) {
-        if (adapter != null) {
-            switch (currentReaderMode) {
-                case NORMAL_READER_MODE:
-                    adapter.disableReaderMode(activity);
-                    break;
-                case DISPATCH_READER_MODE:
-                    adapter.disableForegroundDispatch(activity);
-                    break;
-                default:
-                    Log.e(LOG_TAG, "unknown reader mode: " + currentReaderMode);
-            }
-        }
         events = null;
+        // Keep the reader on for a provisioning session
+        if (provisioning == null) {
+            stopReading();
+            readerState.releaseMode();
+        }
+        tagFilters.clear();
+        optionSubscriptions.clear();
+        dispatcher.setSink(null);
+        // Anything held back for a paused listener is discarded
+        dispatcher.resume();
     }
 
     @Override
-    public void onTagDiscovered(Tag tag) {
+    public void onTagDiscovered(final Tag tag) {
+        // Tags can still be delivered just after the reader was stopped
+        if (!readerState.isReading()) {
+            return;
+        }
         lastTag = tag;
+        if (isRepeatedTag(tag)) {
+            return;
+        }
+        final ProvisioningSession session = provisioning;
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (session != null) {
+                    provisionTag(session, tag);
+                } else {
+                    readTag(tag);
+                }
+            }
+        });
+    }
+
+    /**
+     * readTag is the RF stage of reading a tag: it connects, reads the raw
+     * NDEF message and closes the connection, leaving everything else to the
+     * decode stage. Must only be called on the NFC I/O thread.
+     */
+    private void readTag(Tag tag) {
         Ndef ndef = Ndef.get(tag);
         NdefFormatable formatable = NdefFormatable.get(tag);
+        stats.countTag();
+        // A tag with an open session is read through the session's
+        // connection, which is left open
+        TagSession session = sessionOn(tag);
+        if (ndef != null && session == null && readingConfig.fastType2Reads && Ndef.NFC_FORUM_TYPE_2.equals(ndef.getType())) {
+            byte[] message = readType2Tag(tag);
+            if (message != null) {
+                journalRead(ndef, message);
+                decodeLater(ndef, message);
+                return;
+            }
+        }
         if (ndef != null) {
-            boolean closed = false;
+            byte[] message;
             try {
-                ndef.connect();
-                NdefMessage message = ndef.getNdefMessage();
-                if (message == null) {
-                    eventSuccess(formatEmptyNDEFMessage(ndef));
-                    return;
-                }
-                try {
-                    ndef.close();
-                    closed = true;
-                } catch (IOException e) {
-                    Log.e(LOG_TAG, "close NDEF tag error: " + e.getMessage());
+                Ndef connected = ndef;
+                long start = ScanStats.now();
+                if (session != null) {
+                    connected = session.ndef();
+                } else {
+                    ndef.connect();
                 }
-                eventSuccess(formatNDEFMessageToResult(ndef, message));
+                stats.record(ScanStats.CONNECT, start);
+
+                start = ScanStats.now();
+                NdefMessage ndefMessage = connected.getNdefMessage();
+                stats.record(ScanStats.READ, start);
+                message = ndefMessage != null ? ndefMessage.toByteArray() : null;
             } catch (IOException e) {
+                if (session != null && e instanceof TagLostException) {
+                    retireSession(session, TagSession.LOST);
+                }
+                forgetIfLost(tag, e);
+                journalError(tag, "IOError", e.getMessage());
                 Map<String, Object> details = new HashMap<>();
                 details.put("fatal", true);
                 eventError("IOError", e.getMessage(), details);
+                return;
             } catch (FormatException e) {
+                journalError(tag, "NDEFBadFormatError", e.getMessage());
                 eventError("NDEFBadFormatError", e.getMessage(), null);
+                return;
+            } catch (NfcInFlutterException e) {
+                journalError(tag, e.code, e.message);
+                eventError(e.code, e.message, e.details);
+                return;
             } finally {
-                // Close if the tag connection if it isn't already
-                if (!closed) {
+                if (session == null) {
                     try {
+                        long start = ScanStats.now();
                         ndef.close();
+                        stats.record(ScanStats.CLOSE, start);
                     } catch (IOException e) {
                         Log.e(LOG_TAG, "close NDEF tag error: " + e.getMessage());
                     }
                 }
             }
-        } else if (formatable != null) {
-            eventSuccess(formatEmptyWritableNDEFMessage());
+            if (message != null) {
+                stats.countBytesRead(message.length);
+            }
+            journalRead(ndef, message);
+            decodeLater(ndef, message);
+        } else if (formatable != null && matchesTagFilters(tag.getId(), null)) {
+            eventSuccess(formatFormatableTagEvent(readingConfig));
+        }
+    }
+
+    /**
+     * readType2Tag reads a Type 2 tag's NDEF message with bulk FAST_READ
+     * commands through NfcA, instead of the page by page reads done by Ndef.
+     *
+     * @return the serialized message, or null if the tag couldn't be read
+     * this way and should be read through Ndef instead
+     */
+    private byte[] readType2Tag(Tag tag) {
+        NfcA nfcA = NfcA.get(tag);
+        if (nfcA == null) {
+            return null;
+        }
+        TagTransport transport = new NfcATagTransport(nfcA);
+        byte[] message;
+        try {
+            long start = ScanStats.now();
+            transport.connect();
+            stats.record(ScanStats.CONNECT, start);
+
+            start = ScanStats.now();
+            message = new Type2TagReader(transport).readNdef();
+            stats.record(ScanStats.READ, start);
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "fast type 2 read failed, falling back to ndef: " + e.getMessage());
+            return null;
+        } finally {
+            try {
+                long start = ScanStats.now();
+                transport.close();
+                stats.record(ScanStats.CLOSE, start);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "close NfcA tag error: " + e.getMessage());
+            }
+        }
+        if (message != null) {
+            stats.countBytesRead(message.length);
+        }
+        return message;
+    }
+
+    /**
+     * decodeLater runs the decode stage of reading a tag on the decode thread.
+     * A null or empty message means the tag is empty.
+     */
+    private void decodeLater(final Ndef ndef, final byte[] message) {
+        decoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    try {
+                        deliverNDEFTag(ndef, message);
+                    } catch (NdefFormatException e) {
+                        // The decoder doesn't handle chunked records, which
+                        // raw reads may return, so let NdefMessage join them
+                        // and try again
+                        deliverNDEFTag(ndef, new NdefMessage(message).toByteArray());
+                    }
+                } catch (FormatException | NdefFormatException e) {
+                    journalError(ndef.getTag(), "NDEFBadFormatError", e.getMessage());
+                    eventError("NDEFBadFormatError", e.getMessage(), null);
+                }
+            }
+        });
+    }
+
+    /**
+     * journalRead records a read in the scan journal, if it is enabled.
+     */
+    private void journalRead(Ndef ndef, byte[] message) {
+        ScanJournal journal = this.journal;
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.appendRead(System.currentTimeMillis(), ndef.getTag().getId(), ndef.getType(), ndef.isWritable(), message);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "scan journal error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * journalError records a failed read in the scan journal, if it is
+     * enabled.
+     */
+    private void journalError(Tag tag, String code, String message) {
+        ScanJournal journal = this.journal;
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.appendError(System.currentTimeMillis(), tag.getId(), code, message);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "scan journal error: " + e.getMessage());
         }
     }
 
@@ -232,26 +799,57 @@ public class NfcInFlutterPlugin implements MethodCallHandler,
     public boolean onNewIntent(Intent intent) {
         String action = intent.getAction();
         if (NfcAdapter.ACTION_NDEF_DISCOVERED.equals(action)) {
-            Tag tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
+            final Tag tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
             lastTag = tag;
-            handleNDEFTagFromIntent(tag);
+            // The message was read by the platform before the intent was
+            // sent, so only the decode stage is left, which must not run on
+            // the main thread
+            decoder.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isRepeatedTag(tag)) {
+                        handleNDEFTagFromIntent(tag);
+                    }
+                }
+            });
             return true;
         }
         return false;
     }
 
+    /**
+     * isRepeatedTag checks if tag was seen recently and should be ignored.
+     * It only uses the NDEF message cached at discovery, so it never connects
+     * to the tag.
+     */
+    private boolean isRepeatedTag(Tag tag) {
+        if (!deduplicator.isEnabled()) {
+            return false;
+        }
+        long contentHash = 0;
+        if (deduplicator.isMatchingContent()) {
+            Ndef ndef = Ndef.get(tag);
+            NdefMessage cachedMessage = ndef != null ? ndef.getCachedNdefMessage() : null;
+            if (cachedMessage != null) {
+                contentHash = ContentHash.hash(cachedMessage.toByteArray());
+            }
+        }
+        return deduplicator.suppress(tagIds.get(tag), contentHash, SystemClock.elapsedRealtime());
+    }
+
     private String getNDEFTagID(Ndef ndef) {
-        byte[] idByteArray = ndef.getTag().getId();
-        // Fancy string formatting snippet is from
-        // https://gist.github.com/luixal/5768921#gistcomment-1788815
-        return String.format("%0" + (idByteArray.length * 2) + "X", new BigInteger(1, idByteArray));
+        return tagIds.get(ndef.getTag());
     }
 
+    /**
+     * handleNDEFTagFromIntent decodes and sends a tag delivered by foreground
+     * dispatch. Must only be called on the decode thread.
+     */
     private void handleNDEFTagFromIntent(Tag tag) {
+        stats.countTag();
         Ndef ndef = Ndef.get(tag);
         NdefFormatable formatable = NdefFormatable.get(tag);
 
-        Map result;
         if (ndef != null) {
             NdefMessage message = ndef.getCachedNdefMessage();
             try {
@@ -259,14 +857,91 @@ public class NfcInFlutterPlugin implements MethodCallHandler,
             } catch (IOException e) {
                 Log.e(LOG_TAG, "close NDEF tag error: " + e.getMessage());
             }
-            result = formatNDEFMessageToResult(ndef, message);
-        } else if (formatable != null) {
-            result = formatEmptyWritableNDEFMessage();
-        } else {
+            byte[] messageBytes = message != null ? message.toByteArray() : null;
+            journalRead(ndef, messageBytes);
+            try {
+                deliverNDEFTag(ndef, messageBytes);
+            } catch (NdefFormatException e) {
+                journalError(tag, "NDEFBadFormatError", e.getMessage());
+                eventError("NDEFBadFormatError", e.getMessage(), null);
+            }
+        } else if (formatable != null && matchesTagFilters(tag.getId(), null)) {
+            eventSuccess(formatFormatableTagEvent(readingConfig));
+        }
+    }
+
+    /**
+     * deliverNDEFTag decodes a NDEF tag's message and sends it to the tag
+     * stream, either as a single event or streamed record by record. A null
+     * or empty message means the tag is empty.
+     */
+    private void deliverNDEFTag(Ndef ndef, byte[] message) throws NdefFormatException {
+        if (!matchesTagFilters(ndef.getTag().getId(), message)) {
+            filteredTags.incrementAndGet();
+            return;
+        }
+        tagIds.remember(ndef.getTag());
+        ReadingConfig config = readingConfig;
+        long start = ScanStats.now();
+        if (config.streamChunkSize > 0) {
+            NdefStreamEncoder.encode(getNDEFTagID(ndef), ndef.getType(), ndef.isWritable(), message, config.streamChunkSize,
+                    new NdefStreamEncoder.EventSink() {
+                        @Override
+                        public void event(Map<String, Object> event) {
+                            eventSuccess(event);
+                        }
+                    });
+            stats.record(ScanStats.DECODE, start);
             return;
         }
+        Object event = formatTagEvent(config, ndef, message);
+        stats.record(ScanStats.DECODE, start);
+        dispatcher.success(getNDEFTagID(ndef), event);
+    }
 
-        eventSuccess(result);
+    /**
+     * matchesTagFilters checks if any subscription to the tag stream wants
+     * the tag, using only its id and raw message.
+     */
+    private boolean matchesTagFilters(byte[] tagId, byte[] message) {
+        if (tagFilters.isEmpty()) {
+            return true;
+        }
+        for (TagFilter filter : tagFilters.values()) {
+            try {
+                if (filter.matches(tagId, message)) {
+                    return true;
+                }
+            } catch (NdefFormatException e) {
+                // Let decoding report the malformed message
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * formatTagEvent formats a NDEF tag in the wire format of config. A null
+     * or empty message means the tag is empty.
+     */
+    private Object formatTagEvent(ReadingConfig config, Ndef ndef, byte[] message) throws NdefFormatException {
+        if (message != null && message.length == 0) {
+            message = null;
+        }
+        if (config.isFrameWireFormat()) {
+            return TagFrameEncoder.encode(ndef.getTag().getId(), ndef.getType(), ndef.isWritable(), message);
+        }
+        if (message == null) {
+            return formatEmptyNDEFMessage(ndef);
+        }
+        return formatNDEFMessageToResult(config, ndef, message);
+    }
+
+    private Object formatFormatableTagEvent(ReadingConfig config) {
+        if (config.isFrameWireFormat()) {
+            return TagFrameEncoder.encodeEmpty(null, null, true);
+        }
+        return formatEmptyWritableNDEFMessage();
     }
 
     private Map<String, Object> formatEmptyWritableNDEFMessage() {
@@ -295,184 +970,35 @@ public class NfcInFlutterPlugin implements MethodCallHandler,
         return result;
     }
 
-    private Map<String, Object> formatNDEFMessageToResult(Ndef ndef, NdefMessage message) {
+    private Map<String, Object> formatNDEFMessageToResult(ReadingConfig config, Ndef ndef, byte[] message) throws NdefFormatException {
         final Map<String, Object> result = new HashMap<>();
-        List<Map<String, Object>> records = new ArrayList<>();
-        for (NdefRecord record : message.getRecords()) {
-            Map<String, Object> recordMap = new HashMap<>();
-            byte[] recordPayload = record.getPayload();
-            Charset charset = StandardCharsets.UTF_8;
-            short tnf = record.getTnf();
-            byte[] type = record.getType();
-            if (tnf == NdefRecord.TNF_WELL_KNOWN && Arrays.equals(type, NdefRecord.RTD_TEXT)) {
-                charset = ((recordPayload[0] & 128) == 0) ? StandardCharsets.UTF_8 : StandardCharsets.UTF_16;
-            }
-            recordMap.put("rawPayload", recordPayload);
-
-            // If the record's tnf is well known and the RTD is set to URI,
-            // the URL prefix should be added to the payload
-            if (tnf == NdefRecord.TNF_WELL_KNOWN && Arrays.equals(type, NdefRecord.RTD_URI)) {
-                recordMap.put("data", new String(recordPayload, 1, recordPayload.length - 1, charset));
-
-                String url = "";
-                byte prefixByte = recordPayload[0];
-                // https://android.googlesource.com/platform/frameworks/base/+/master/core/java/android/nfc/NdefRecord.java#238
-                switch (prefixByte) {
-                    case 0x01:
-                        url = "http://www.";
-                        break;
-                    case 0x02:
-                        url = "https://www.";
-                        break;
-                    case 0x03:
-                        url = "http://";
-                        break;
-                    case 0x04:
-                        url = "https://";
-                        break;
-                    case 0x05:
-                        url = "tel:";
-                        break;
-                    case 0x06:
-                        url = "mailto:";
-                        break;
-                    case 0x07:
-                        url = "ftp://anonymous:anonymous@";
-                        break;
-                    case 0x08:
-                        url = "ftp://ftp.";
-                        break;
-                    case 0x09:
-                        url = "ftps://";
-                        break;
-                    case 0x0A:
-                        url = "sftp://";
-                        break;
-                    case 0x0B:
-                        url = "smb://";
-                        break;
-                    case 0x0C:
-                        url = "nfs://";
-                        break;
-                    case 0x0D:
-                        url = "ftp://";
-                        break;
-                    case 0x0E:
-                        url = "dav://";
-                        break;
-                    case 0x0F:
-                        url = "news:";
-                        break;
-                    case 0x10:
-                        url = "telnet://";
-                        break;
-                    case 0x11:
-                        url = "imap:";
-                        break;
-                    case 0x12:
-                        url = "rtsp://";
-                        break;
-                    case 0x13:
-                        url = "urn:";
-                        break;
-                    case 0x14:
-                        url = "pop:";
-                        break;
-                    case 0x15:
-                        url = "sip:";
-                        break;
-                    case 0x16:
-                        url = "sips";
-                        break;
-                    case 0x17:
-                        url = "tftp:";
-                        break;
-                    case 0x18:
-                        url = "btspp://";
-                        break;
-                    case 0x19:
-                        url = "btl2cap://";
-                        break;
-                    case 0x1A:
-                        url = "btgoep://";
-                        break;
-                    case 0x1B:
-                        url = "btgoep://";
-                        break;
-                    case 0x1C:
-                        url = "irdaobex://";
-                        break;
-                    case 0x1D:
-                        url = "file://";
-                        break;
-                    case 0x1E:
-                        url = "urn:epc:id:";
-                        break;
-                    case 0x1F:
-                        url = "urn:epc:tag:";
-                        break;
-                    case 0x20:
-                        url = "urn:epc:pat:";
-                        break;
-                    case 0x21:
-                        url = "urn:epc:raw:";
-                        break;
-                    case 0x22:
-                        url = "urn:epc:";
-                        break;
-                    case 0x23:
-                        url = "urn:nfc:";
-                        break;
-                }
-                recordMap.put("payload", url + new String(recordPayload, 1, recordPayload.length - 1, charset));
-            } else if (tnf == NdefRecord.TNF_WELL_KNOWN && Arrays.equals(type, NdefRecord.RTD_TEXT)) {
-                int languageCodeLength = (recordPayload[0] & 0x3f) + 1;
-                recordMap.put("payload", new String(recordPayload, 1, recordPayload.length - 1, charset));
-                recordMap.put("languageCode", new String(recordPayload, 1, languageCodeLength - 1, charset));
-                recordMap.put("data", new String(recordPayload, languageCodeLength, recordPayload.length - languageCodeLength, charset));
-            } else {
-                recordMap.put("payload", new String(recordPayload, charset));
-                recordMap.put("data", new String(recordPayload, charset));
-            }
-
-            recordMap.put("id", new String(record.getId(), StandardCharsets.UTF_8));
-            recordMap.put("type", new String(record.getType(), StandardCharsets.UTF_8));
-
-            String tnfValue;
-            switch (tnf) {
-                case NdefRecord.TNF_EMPTY:
-                    tnfValue = "empty";
-                    break;
-                case NdefRecord.TNF_WELL_KNOWN:
-                    tnfValue = "well_known";
-                    break;
-                case NdefRecord.TNF_MIME_MEDIA:
-                    tnfValue = "mime_media";
-                    break;
-                case NdefRecord.TNF_ABSOLUTE_URI:
-                    tnfValue = "absolute_uri";
-                    break;
-                case NdefRecord.TNF_EXTERNAL_TYPE:
-                    tnfValue = "external_type";
-                    break;
-                case NdefRecord.TNF_UNCHANGED:
-                    tnfValue = "unchanged";
-                    break;
-                default:
-                    tnfValue = "unknown";
-            }
-
-            recordMap.put("tnf", tnfValue);
-            records.add(recordMap);
-        }
         result.put("id", getNDEFTagID(ndef));
         result.put("message_type", "ndef");
         result.put("type", ndef.getType());
-        result.put("records", records);
+        result.put("records", decodeRecords(config, ndef.getType(), message));
         result.put("writable", ndef.isWritable());
         return result;
     }
 
+    /**
+     * decodeRecords decodes the records of message, or returns them from the
+     * decode cache if the message has been decoded before. Only the records
+     * are cached, the tag's id and writability are always the current tag's.
+     */
+    private List<Map<String, Object>> decodeRecords(ReadingConfig config, String tagType, byte[] message) throws NdefFormatException {
+        DecodeCache cache = config.decodeCache;
+        if (cache != null) {
+            List<Map<String, Object>> cached = cache.get(message, tagType);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        List<Map<String, Object>> records = config.recordDecoders != null
+                ? config.recordDecoders.decodeRecords(message)
+                : NdefDecoder.decodeRecords(message, config.lazyDecoding);
+        return cache != null ? cache.put(message, tagType, records) : records;
+    }
+
     private NdefMessage formatMapToNDEFMessage(Map map) throws IllegalArgumentException {
         Object mapRecordsObj = map.get("records");
         if (mapRecordsObj == null) {
@@ -564,42 +1090,547 @@ public class NfcInFlutterPlugin implements MethodCallHandler,
         return new NdefMessage(records);
     }
 
-    private static class FormatRequest {
-        final NdefFormatable formatable;
+    /**
+     * writeRawNDEF writes a message given either already serialized or as
+     * records with binary payloads. The bytes from Dart are handed to
+     * NdefMessage and NdefRecord as they are.
+     */
+    private void writeRawNDEF(MethodCall call, Result result) {
+        Map args = call.arguments();
+        if (args == null) {
+            result.error("NFCMissingArguments", "missing arguments", null);
+            return;
+        }
         final NdefMessage message;
+        try {
+            Object serialized = args.get("message");
+            Object records = args.get("records");
+            if (serialized instanceof byte[]) {
+                message = new NdefMessage((byte[]) serialized);
+            } else if (records instanceof List) {
+                message = formatRawRecordsToNDEFMessage((List) records);
+            } else {
+                result.error("NFCMissingNDEFMessage", "a ndef message was not given", null);
+                return;
+            }
+        } catch (FormatException | IllegalArgumentException e) {
+            result.error("NDEFBadFormatError", e.getMessage(), null);
+            return;
+        }
+        Tag tag;
+        try {
+            tag = findTag((String) args.get("id"));
+        } catch (NfcInFlutterException e) {
+            result.error(e.code, e.message, e.details);
+            return;
+        }
+        submitWrite(tag, message, Boolean.TRUE.equals(args.get("skip_if_identical")), result);
+    }
 
-        FormatRequest(NdefFormatable formatable, NdefMessage message) {
-            this.formatable = formatable;
-            this.message = message;
+    /**
+     * findTag returns the tag an operation from Dart is for. Tags are looked
+     * up by the id Dart received them with, so an operation on a tag never
+     * ends up on a tag discovered after it.
+     *
+     * @throws NfcInFlutterException if the tag is no longer available
+     */
+    private Tag findTag(String id) throws NfcInFlutterException {
+        // Callers that don't know the tag's id get the last tag, as before
+        if (id == null || id.isEmpty()) {
+            Tag tag = lastTag;
+            if (tag == null) {
+                throw new NfcInFlutterException("NFCTagUnavailable", "no tag has been discovered", null);
+            }
+            return tag;
+        }
+        Tag tag = tagIds.find(id);
+        if (tag == null) {
+            throw new NfcInFlutterException("NFCTagUnavailable", "tag " + id + " is no longer available", null);
         }
+        return tag;
     }
 
     /**
-     * FormatTask formats a NdefFormatable tag.
-     * NdefFormatable.format() must not be called on the main thread, so it
-     * will be called in a seperate thread by this AsyncTask.
+     * forgetIfLost forgets tag if e means it has left the field, so later
+     * operations on it fail right away.
      */
-    private static class FormatTask extends AsyncTask<FormatRequest, Void, NfcInFlutterException> {
-        @Override
-        protected NfcInFlutterException doInBackground(FormatRequest... formatRequests) {
-            for (FormatRequest request : formatRequests) {
+    private void forgetIfLost(Tag tag, IOException e) {
+        if (e instanceof TagLostException) {
+            tagIds.forget(tag);
+        }
+    }
+
+    /**
+     * submitWrite queues a write of message to tag. The write is counted as
+     * in flight until it completes, while new tags keep being read.
+     */
+    private void submitWrite(final Tag tag, final NdefMessage message, final boolean skipIfIdentical, Result result) {
+        readerState.beginWrite();
+        boolean accepted = io.submit(new NfcIoExecutor.IoTask() {
+            @Override
+            public Object run() throws NfcInFlutterException {
                 try {
-                    request.formatable.connect();
-                    request.formatable.format(request.message);
-                    request.formatable.close();
+                    return writeNDEF(tag, message, skipIfIdentical);
+                } finally {
+                    readerState.endWrite();
+                }
+            }
+        }, result);
+        if (!accepted) {
+            // The write will never run, so it must not stay in flight
+            readerState.endWrite();
+        }
+    }
+
+    private NdefMessage formatRawRecordsToNDEFMessage(List mapRecords) {
+        if (mapRecords.isEmpty()) {
+            throw new IllegalArgumentException("a message must have at least one record");
+        }
+        NdefRecord[] records = new NdefRecord[mapRecords.size()];
+        for (int i = 0; i < records.length; i++) {
+            Object mapRecordObj = mapRecords.get(i);
+            if (!(mapRecordObj instanceof Map)) {
+                throw new IllegalArgumentException("record is not a map");
+            }
+            Map mapRecord = (Map) mapRecordObj;
+            Number tnf = (Number) mapRecord.get("tnf");
+            if (tnf == null) {
+                throw new IllegalArgumentException("record tnf is null");
+            }
+            records[i] = new NdefRecord(tnf.shortValue(),
+                    (byte[]) mapRecord.get("type"),
+                    (byte[]) mapRecord.get("id"),
+                    (byte[]) mapRecord.get("payload"));
+        }
+        return new NdefMessage(records);
+    }
+
+    private void startProvisioning(MethodCall call, final Result result) {
+        Map args = call.arguments();
+        if (args == null || !(args.get("message") instanceof Map)) {
+            result.error("NFCMissingNDEFMessage", "a ndef message was not given", null);
+            return;
+        }
+        NdefTemplate template;
+        try {
+            template = compileTemplate((Map) args.get("message"));
+        } catch (NdefFormatException | IllegalArgumentException e) {
+            result.error("NDEFBadFormatError", e.getMessage(), null);
+            return;
+        }
+        Number firstSerial = (Number) args.get("first_serial");
+        final ProvisioningSession session = new ProvisioningSession(template,
+                firstSerial != null ? firstSerial.longValue() : 1,
+                SystemClock.elapsedRealtime());
+        final boolean noSounds = Boolean.TRUE.equals(args.get("no_platform_sounds"));
+        // Claimed on the main thread, like startNDEFReading
+        mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!readerState.claimMode(NORMAL_READER_MODE)) {
+                    result.error("NFCMultipleReaderModes", "multiple reader modes", "");
+                    return;
+                }
+                provisioning = session;
+                startReading(noSounds);
+                result.success(null);
+            }
+        });
+    }
+
+    private void stopProvisioning(final Result result) {
+        mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                ProvisioningSession session = provisioning;
+                provisioning = null;
+                if (session == null) {
+                    result.success(null);
+                    return;
+                }
+                // Keep the reader enabled if the tag stream is still being
+                // listened to
+                if (events == null) {
+                    stopReading();
+                    readerState.releaseMode();
+                }
+                result.success(session.summary(SystemClock.elapsedRealtime()));
+            }
+        });
+    }
+
+    /**
+     * compileTemplate encodes a message map once, with the substitution slots
+     * in its payloads left as placeholders.
+     */
+    private NdefTemplate compileTemplate(Map messageMap) throws NdefFormatException {
+        Object mapRecordsObj = messageMap.get("records");
+        if (!(mapRecordsObj instanceof List)) {
+            throw new IllegalArgumentException("map key 'records' is not a list");
+        }
+        List<NdefTemplate.Slot> slots = new ArrayList<>();
+        List<Object> preparedRecords = new ArrayList<>();
+        for (Object mapRecordObj : (List) mapRecordsObj) {
+            if (mapRecordObj instanceof Map && ((Map) mapRecordObj).get("payload") instanceof String) {
+                Map preparedRecord = new HashMap((Map) mapRecordObj);
+                preparedRecord.put("payload", NdefTemplate.prepare((String) preparedRecord.get("payload"), slots));
+                mapRecordObj = preparedRecord;
+            }
+            preparedRecords.add(mapRecordObj);
+        }
+        Map<String, Object> preparedMessage = new HashMap<>();
+        preparedMessage.put("records", preparedRecords);
+        return NdefTemplate.compile(formatMapToNDEFMessage(preparedMessage).toByteArray(), slots);
+    }
+
+    /**
+     * provisionTag writes the provisioning template to tag and reports the
+     * outcome on the provisioning event channel. Must only be called on the
+     * NFC I/O thread.
+     */
+    private void provisionTag(ProvisioningSession session, Tag tag) {
+        long serial = session.peekSerial();
+        String error = null;
+        try {
+            NdefMessage message = new NdefMessage(session.template.render(serial, tag.getId()));
+            writeNDEF(tag, message, false);
+            session.recordSuccess();
+        } catch (NfcInFlutterException e) {
+            error = e.code;
+        } catch (FormatException | IllegalArgumentException e) {
+            error = "NDEFBadFormatError";
+        } catch (RuntimeException e) {
+            // Android throws SecurityException and IllegalStateException for
+            // tags that went out of date or were taken by another connection
+            Log.e(LOG_TAG, "provision tag error: " + e.getMessage());
+            error = "NFCUnexpectedError";
+        }
+        if (error != null) {
+            session.recordFailure();
+        }
+        provisioningDispatcher.success(session.tagResult(tagIds.get(tag), serial, error, SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * openSession opens a tag session on a discovered tag, keeping it
+     * connected until the session is closed, the tag is lost or the session
+     * has been idle for too long.
+     */
+    private void openSession(MethodCall call, Result result) {
+        Map args = call.arguments();
+        if (args == null) {
+            result.error("NFCMissingArguments", "missing arguments", null);
+            return;
+        }
+        final Tag tag;
+        try {
+            tag = findTag((String) args.get("id"));
+        } catch (NfcInFlutterException e) {
+            result.error(e.code, e.message, e.details);
+            return;
+        }
+        Number idleTimeout = (Number) args.get("idle_timeout_ms");
+        Number presenceCheckInterval = (Number) args.get("presence_check_interval_ms");
+        final long idleTimeoutMillis = idleTimeout != null ? idleTimeout.longValue() : 10000;
+        final long presenceCheckMillis = presenceCheckInterval != null ? presenceCheckInterval.longValue() : 250;
+        io.submit(new NfcIoExecutor.IoTask() {
+            @Override
+            public Object run() throws NfcInFlutterException {
+                TagSession session = new TagSession(nextSessionHandle++, tag, idleTimeoutMillis, SystemClock.elapsedRealtime());
+                if (Ndef.get(tag) != null) {
+                    try {
+                        long start = ScanStats.now();
+                        session.ndef();
+                        stats.record(ScanStats.CONNECT, start);
+                    } catch (IOException e) {
+                        session.close(TagSession.LOST);
+                        throw new NfcInFlutterException("IOError", e.getMessage(), null);
+                    }
+                }
+                sessions.put(session.handle, session);
+                if (presenceCheckMillis > 0) {
+                    schedulePresenceCheck(session, presenceCheckMillis);
+                }
+                return session.handle;
+            }
+        }, result);
+    }
+
+    /**
+     * sessionOn returns the open session connected to tag, or null. Must only
+     * be called on the NFC I/O thread.
+     */
+    private TagSession sessionOn(Tag tag) {
+        for (TagSession session : sessions.values()) {
+            if (session.tag == tag && session.closeReason() == null) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * retireSession closes a session the plugin gave up on and forgets it,
+     * keeping why it was closed for the next call Dart makes on it. Must
+     * only be called on the NFC I/O thread.
+     */
+    private void retireSession(TagSession session, String reason) {
+        session.close(reason);
+        sessions.remove(session.handle);
+        closedSessions.put(session.handle, reason);
+        if (closedSessions.size() > 16) {
+            Iterator<Integer> eldest = closedSessions.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        if (TagSession.LOST.equals(reason)) {
+            tagIds.forget(session.tag);
+        }
+    }
+
+    private void schedulePresenceCheck(final TagSession session, final long intervalMillis) {
+        io.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (session.closeReason() != null) {
+                    return;
+                }
+                String reason = session.check(SystemClock.elapsedRealtime());
+                if (reason != null) {
+                    retireSession(session, reason);
+                    return;
+                }
+                schedulePresenceCheck(session, intervalMillis);
+            }
+        }, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void handleSessionCall(final MethodCall call, Result result) {
+        final Map args = call.arguments();
+        if (args == null || !(args.get("session") instanceof Number)) {
+            result.error("NFCMissingArguments", "missing session", null);
+            return;
+        }
+        final int handle = ((Number) args.get("session")).intValue();
+        // Parse the message on the calling thread, like writeNDEF does
+        final NdefMessage message = "sessionWriteNDEF".equals(call.method) && args.get("message") instanceof Map
+                ? formatMapToNDEFMessage((Map) args.get("message"))
+                : null;
+        io.submit(new NfcIoExecutor.IoTask() {
+            @Override
+            public Object run() throws NfcInFlutterException {
+                if ("closeSession".equals(call.method)) {
+                    TagSession session = sessions.remove(handle);
+                    if (session != null) {
+                        session.close(TagSession.CLOSED);
+                    }
+                    closedSessions.remove(handle);
+                    return null;
+                }
+                TagSession session = sessions.get(handle);
+                if (session == null) {
+                    String reason = closedSessions.get(handle);
+                    throw TagSession.closedException(reason != null ? reason : TagSession.CLOSED);
+                }
+                try {
+                    Object value;
+                    switch (call.method) {
+                        case "sessionReadNDEF":
+                            value = sessionReadNDEF(session);
+                            break;
+                        case "sessionWriteNDEF":
+                            if (message == null) {
+                                throw new NfcInFlutterException("NFCMissingNDEFMessage", "a ndef message was not given", null);
+                            }
+                            sessionWriteNDEF(session, message);
+                            value = null;
+                            break;
+                        default:
+                            Object data = args.get("data");
+                            String technology = (String) args.get("technology");
+                            if (!(data instanceof byte[]) || technology == null) {
+                                throw new NfcInFlutterException("NFCMissingArguments", "missing data or technology", null);
+                            }
+                            value = session.transceive(technology, (byte[]) data);
+                    }
+                    session.touch(SystemClock.elapsedRealtime());
+                    return value;
+                } catch (TagLostException e) {
+                    retireSession(session, TagSession.LOST);
+                    throw new NfcInFlutterException("IOError", e.getMessage(), null);
                 } catch (IOException e) {
-                    return new NfcInFlutterException("IOError", e.getMessage(), null);
-                } catch (FormatException e) {
-                    return new NfcInFlutterException("NDEFBadFormatError", e.getMessage(), null);
+                    throw new NfcInFlutterException("IOError", e.getMessage(), null);
+                }
+            }
+        }, result);
+    }
+
+    private Map<String, Object> sessionReadNDEF(TagSession session) throws IOException, NfcInFlutterException {
+        Ndef ndef = session.ndef();
+        try {
+            long start = ScanStats.now();
+            NdefMessage message = ndef.getNdefMessage();
+            stats.record(ScanStats.READ, start);
+            if (message == null) {
+                return formatEmptyNDEFMessage(ndef);
+            }
+            byte[] messageBytes = message.toByteArray();
+            stats.countBytesRead(messageBytes.length);
+            start = ScanStats.now();
+            Map<String, Object> result = formatNDEFMessageToResult(readingConfig, ndef, messageBytes);
+            stats.record(ScanStats.DECODE, start);
+            return result;
+        } catch (FormatException | NdefFormatException e) {
+            throw new NfcInFlutterException("NDEFBadFormatError", e.getMessage(), null);
+        }
+    }
+
+    /**
+     * writeThroughSession writes message to a tag with an open session,
+     * using the session's connection and leaving it open.
+     *
+     * @return false if the write was skipped
+     */
+    private boolean writeThroughSession(TagSession session, NdefMessage message, boolean skipIfIdentical) throws NfcInFlutterException {
+        try {
+            if (skipIfIdentical) {
+                NdefMessage current = session.ndef().getNdefMessage();
+                if (current != null && Arrays.equals(current.toByteArray(), message.toByteArray())) {
+                    return false;
+                }
+            }
+            sessionWriteNDEF(session, message);
+            session.touch(SystemClock.elapsedRealtime());
+            return true;
+        } catch (TagLostException e) {
+            retireSession(session, TagSession.LOST);
+            throw new NfcInFlutterException("IOError", e.getMessage(), null);
+        } catch (IOException e) {
+            throw new NfcInFlutterException("IOError", e.getMessage(), null);
+        } catch (FormatException e) {
+            throw new NfcInFlutterException("NDEFBadFormatError", e.getMessage(), null);
+        }
+    }
+
+    private void sessionWriteNDEF(TagSession session, NdefMessage message) throws IOException, NfcInFlutterException {
+        Ndef ndef = session.ndef();
+        if (ndef.getMaxSize() < message.getByteArrayLength()) {
+            HashMap<String, Object> details = new HashMap<>();
+            details.put("maxSize", ndef.getMaxSize());
+            throw new NfcInFlutterException("NFCTagSizeTooSmallError", "message is too large for this tag", details);
+        }
+        try {
+            long start = ScanStats.now();
+            ndef.writeNdefMessage(message);
+            stats.record(ScanStats.WRITE, start);
+        } catch (FormatException e) {
+            throw new NfcInFlutterException("NDEFBadFormatError", e.getMessage(), null);
+        }
+        stats.countBytesWritten(message.getByteArrayLength());
+    }
+
+    private void enableJournal(MethodCall call, Result result) {
+        Map args = call.arguments();
+        Number segmentSize = args != null ? (Number) args.get("segment_size") : null;
+        Number maxSegments = args != null ? (Number) args.get("max_segments") : null;
+        final int segmentBytes = segmentSize != null ? segmentSize.intValue() : 1 << 20;
+        final int segmentCount = maxSegments != null ? maxSegments.intValue() : 8;
+        final File directory = new File(context.getFilesDir(), "nfc_in_flutter/journal");
+        io.submit(new NfcIoExecutor.IoTask() {
+            @Override
+            public Object run() throws NfcInFlutterException {
+                ScanJournal previous = journal;
+                journal = null;
+                if (previous != null) {
+                    previous.close();
+                }
+                try {
+                    journal = ScanJournal.open(directory, segmentBytes, segmentCount);
+                } catch (IOException e) {
+                    throw new NfcInFlutterException("IOError", "could not open scan journal: " + e.getMessage(), null);
+                } catch (IllegalArgumentException e) {
+                    throw new NfcInFlutterException("NFCInvalidArguments", e.getMessage(), null);
+                }
+                return null;
+            }
+        }, result);
+    }
+
+    /**
+     * queryJournal returns the journal entries matching a time range and
+     * optionally a tag id, either as entry maps or, when replaying, as tag
+     * frames of the reads.
+     */
+    private void queryJournal(MethodCall call, Result result) {
+        Map args = call.arguments();
+        if (args == null) {
+            result.error("NFCMissingArguments", "missing arguments", null);
+            return;
+        }
+        Number from = (Number) args.get("from_ms");
+        Number to = (Number) args.get("to_ms");
+        Number limit = (Number) args.get("limit");
+        String id = (String) args.get("id");
+        long fromMillis = from != null ? from.longValue() : 0;
+        long toMillis = to != null ? to.longValue() : Long.MAX_VALUE;
+        int maxEntries = limit != null ? limit.intValue() : 1000;
+        byte[] tagId;
+        try {
+            tagId = id != null ? Hex.decode(id) : null;
+        } catch (IllegalArgumentException e) {
+            result.error("NFCInvalidArguments", "invalid tag id: " + e.getMessage(), null);
+            return;
+        }
+        boolean replay = "replayJournal".equals(call.method);
+        // Queries copy records out of a snapshot of the journal, so they run
+        // on the method call thread instead of holding up the NFC I/O
+        // thread
+        ScanJournal current = journal;
+        if (current == null) {
+            result.error("NFCJournalDisabled", "the scan journal is not enabled", null);
+            return;
+        }
+        List<Object> results = new ArrayList<>();
+        for (JournalEntry entry : current.query(fromMillis, toMillis, tagId, maxEntries)) {
+            if (!replay) {
+                results.add(entry.toMap());
+            } else if (!entry.isError()) {
+                try {
+                    results.add(TagFrameEncoder.encode(entry.tagId, entry.type, entry.writable,
+                            entry.data.length > 0 ? entry.data : null));
+                } catch (NdefFormatException e) {
+                    Log.d(LOG_TAG, "skipping malformed journal entry: " + e.getMessage());
                 }
             }
-            return null;
         }
+        result.success(results);
     }
 
-    private void writeNDEF(NdefMessage message) throws NfcInFlutterException {
-        Ndef ndef = Ndef.get(lastTag);
-        NdefFormatable formatable = NdefFormatable.get(lastTag);
+    /**
+     * currentNDEFContent reads the serialized NDEF message currently on the
+     * tag, or null if it is empty. The tag is always read, as another device
+     * may have written it since it was discovered. Must only be called on
+     * the NFC I/O thread with ndef connected.
+     */
+    private byte[] currentNDEFContent(Ndef ndef) throws IOException, FormatException {
+        NdefMessage message = ndef.getNdefMessage();
+        return message != null ? message.toByteArray() : null;
+    }
+
+    /**
+     * writeNDEF writes message to tag. It does blocking tag I/O and must only
+     * be called on the NFC I/O thread.
+     *
+     * @param skipIfIdentical don't write if the tag already holds message
+     * @return false if the write was skipped
+     */
+    private boolean writeNDEF(Tag tag, NdefMessage message, boolean skipIfIdentical) throws NfcInFlutterException {
+        TagSession session = sessionOn(tag);
+        if (session != null) {
+            return writeThroughSession(session, message, skipIfIdentical);
+        }
+        Ndef ndef = Ndef.get(tag);
+        NdefFormatable formatable = NdefFormatable.get(tag);
 
         // Absolute try-catch monstrosity
 
@@ -612,13 +1643,22 @@ public class NfcInFlutterPlugin implements MethodCallHandler,
                     throw new NfcInFlutterException("NFCTagSizeTooSmallError", "message is too large for this tag", details);
                 }
                 try {
+                    byte[] messageBytes = message.toByteArray();
+                    if (skipIfIdentical && Arrays.equals(messageBytes, currentNDEFContent(ndef))) {
+                        return false;
+                    }
+                    long start = ScanStats.now();
                     ndef.writeNdefMessage(message);
+                    stats.record(ScanStats.WRITE, start);
+                    stats.countBytesWritten(messageBytes.length);
                 } catch (IOException e) {
+                    forgetIfLost(tag, e);
                     throw new NfcInFlutterException("IOError", "write to tag error: " + e.getMessage(), null);
                 } catch (FormatException e) {
                     throw new NfcInFlutterException("NDEFBadFormatError", e.getMessage(), null);
                 }
             } catch (IOException e) {
+                forgetIfLost(tag, e);
                 throw new NfcInFlutterException("IOError", e.getMessage(), null);
             } finally {
                 try {
@@ -628,50 +1668,36 @@ public class NfcInFlutterPlugin implements MethodCallHandler,
                 }
             }
         } else if (formatable != null) {
-            FormatTask task = new FormatTask();
-            FormatRequest request = new FormatRequest(formatable, message);
             try {
-                NfcInFlutterException result = task.execute(request).get();
-                if (result != null) {
-                    throw result;
+                formatable.connect();
+                long start = ScanStats.now();
+                formatable.format(message);
+                stats.record(ScanStats.FORMAT, start);
+                stats.countBytesWritten(message.getByteArrayLength());
+            } catch (IOException e) {
+                forgetIfLost(tag, e);
+                throw new NfcInFlutterException("IOError", e.getMessage(), null);
+            } catch (FormatException e) {
+                throw new NfcInFlutterException("NDEFBadFormatError", e.getMessage(), null);
+            } finally {
+                try {
+                    formatable.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "close NDEF formatable tag error: " + e.getMessage());
                 }
-            } catch (ExecutionException e) {
-                // TODO
-                throw new NfcInFlutterException("ExecutionError", e.getMessage(), null);
-            } catch (InterruptedException e) {
-                // TODO
-                throw new NfcInFlutterException("InterruptedException", e.getMessage(), null);
             }
         } else {
             throw new NfcInFlutterException("NDEFUnsupported", "tag doesn't support NDEF", null);
         }
+        return true;
     }
 
     private void eventSuccess(final Object result) {
-        Handler mainThread = new Handler(activity.getMainLooper());
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                if (events != null) {
-                    // Event stream must be handled on main/ui thread
-                    events.success(result);
-                }
-            }
-        };
-        mainThread.post(runnable);
+        dispatcher.success(result);
     }
 
     private void eventError(final String code, final String message, final Object details) {
-        Handler mainThread = new Handler(activity.getMainLooper());
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                if (events != null) {
-                    // Event stream must be handled on main/ui thread
-                    events.error(code, message, details);
-                }
-            }
-        };
-        mainThread.post(runnable);
+        stats.countError();
+        dispatcher.error(code, message, details);
     }
 }
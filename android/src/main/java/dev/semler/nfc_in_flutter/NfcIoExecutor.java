@@ -0,0 +1,143 @@
+package dev.semler.nfc_in_flutter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * NfcIoExecutor owns all tag I/O: connecting, reading, writing and
+ * formatting. Every operation runs on a single background thread, so tag
+ * technologies are never connected concurrently and no thread ever blocks
+ * waiting for another. Method call results are completed on the main looper,
+ * as Flutter requires.
+ */
+class NfcIoExecutor {
+    private static final String LOG_TAG = "NfcInFlutterPlugin";
+
+    /**
+     * IoTask is an operation whose outcome completes a method call.
+     */
+    interface IoTask {
+        Object run() throws NfcInFlutterException;
+    }
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Handler mainThread = new Handler(Looper.getMainLooper());
+
+    NfcIoExecutor() {
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nfc_in_flutter-io");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Work already queued still runs on shutdown, but scheduled work and
+        // work submitted later, e.g. a tag discovered while the engine is
+        // detached, is rejected
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Runs {@code runnable} on the I/O thread. Uncaught exceptions are logged
+     * so they don't silently kill queued work.
+     *
+     * @return false if the executor has been shut down and runnable will
+     * never run
+     */
+    boolean execute(final Runnable runnable) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runnable.run();
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "nfc io error: " + e.getMessage());
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs {@code runnable} on the I/O thread after {@code delay}. Uncaught
+     * exceptions are logged like those of {@link #execute}.
+     */
+    void schedule(final Runnable runnable, long delay, TimeUnit unit) {
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runnable.run();
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "nfc io error: " + e.getMessage());
+                    }
+                }
+            }, delay, unit);
+        } catch (RejectedExecutionException e) {
+            // Shut down; scheduled work is dropped
+        }
+    }
+
+    /**
+     * Runs {@code task} on the I/O thread and completes {@code result} with
+     * its outcome on the main thread. If the executor has been shut down,
+     * {@code result} is completed with an NFCUnavailable error instead.
+     *
+     * @return false if task will never run
+     */
+    boolean submit(final IoTask task, final Result result) {
+        boolean accepted = execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Object value = task.run();
+                    postSuccess(result, value);
+                } catch (final NfcInFlutterException e) {
+                    postError(result, e.code, e.message, e.details);
+                } catch (final RuntimeException e) {
+                    postError(result, "NFCUnexpectedError", e.getMessage(), null);
+                }
+            }
+        });
+        if (!accepted) {
+            postError(result, "NFCUnavailable", "the plugin has been detached from the engine", null);
+        }
+        return accepted;
+    }
+
+    private void postSuccess(final Result result, final Object value) {
+        mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                result.success(value);
+            }
+        });
+    }
+
+    private void postError(final Result result, final String code, final String message, final Object details) {
+        mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                result.error(code, message, details);
+            }
+        });
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,70 @@
+package dev.semler.nfc_in_flutter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import dev.semler.nfc_in_flutter.codec.NdefTemplate;
+
+/**
+ * ProvisioningSession keeps track of a bulk provisioning run, in which a
+ * single compiled template is written to every tag that enters the field.
+ * Its methods are only called on the NFC I/O thread, except for the
+ * summary, which is synchronized.
+ */
+class ProvisioningSession {
+    final NdefTemplate template;
+    private final long startedAtMillis;
+    private long nextSerial;
+    private long written = 0;
+    private long failed = 0;
+
+    ProvisioningSession(NdefTemplate template, long firstSerial, long nowMillis) {
+        this.template = template;
+        this.nextSerial = firstSerial;
+        this.startedAtMillis = nowMillis;
+    }
+
+    /**
+     * @return the serial to use for the next tag. It is only consumed once
+     * the tag has been written successfully.
+     */
+    synchronized long peekSerial() {
+        return nextSerial;
+    }
+
+    synchronized void recordSuccess() {
+        nextSerial++;
+        written++;
+    }
+
+    synchronized void recordFailure() {
+        failed++;
+    }
+
+    synchronized double tagsPerMinute(long nowMillis) {
+        long elapsed = Math.max(1, nowMillis - startedAtMillis);
+        return written * 60000.0 / elapsed;
+    }
+
+    /**
+     * @return a result for a single tag, as sent on the provisioning event
+     * channel
+     */
+    synchronized Map<String, Object> tagResult(String tagId, long serial, String error, long nowMillis) {
+        Map<String, Object> result = new HashMap<>(8);
+        result.put("id", tagId);
+        result.put("serial", serial);
+        result.put("written", error == null);
+        result.put("error", error);
+        result.put("tags_per_minute", tagsPerMinute(nowMillis));
+        return result;
+    }
+
+    synchronized Map<String, Object> summary(long nowMillis) {
+        Map<String, Object> summary = new HashMap<>(4);
+        summary.put("written", written);
+        summary.put("failed", failed);
+        summary.put("tags_per_minute", tagsPerMinute(nowMillis));
+        return summary;
+    }
+}
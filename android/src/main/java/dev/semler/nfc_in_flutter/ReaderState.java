@@ -0,0 +1,164 @@
+package dev.semler.nfc_in_flutter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReaderState is the lifecycle of the plugin's reader. It is updated
+ * without locks from the NFC binder thread, the main thread and the method
+ * call thread.
+ * <p>
+ * The phase follows from whether the reader is on and how many writes are
+ * in flight:
+ * <pre>
+ * IDLE     reader off, no writes
+ * READING  reader on, no writes
+ * WRITING  reader on, writes in flight. New tags are still read.
+ * DRAINING reader off, writes in flight. Becomes IDLE with the last write.
+ * </pre>
+ * The reader mode is claimed by the first start and kept until
+ * {@link #releaseMode}, as a reader can only run in one mode.
+ * <p>
+ * The reader's state, its mode and the writes in flight are kept in a
+ * single atomic word, so every transition is one compare-and-set and no
+ * thread ever sees a state that didn't happen.
+ */
+final class ReaderState {
+    static final int IDLE = 0;
+    static final int READING = 1;
+    static final int WRITING = 2;
+    static final int DRAINING = 3;
+
+    static final String NORMAL_MODE = "normal";
+    static final String DISPATCH_MODE = "dispatch";
+
+    private static final int READER_ON = 0x01;
+    private static final int MODE_SHIFT = 1;
+    private static final int MODE_MASK = 0x03 << MODE_SHIFT;
+    private static final int NO_MODE = 0;
+    private static final int NORMAL = 1;
+    private static final int DISPATCH = 2;
+    private static final int WRITES_SHIFT = 3;
+    private static final int WRITE_UNIT = 1 << WRITES_SHIFT;
+
+    // Writes in flight << 3 | mode << 1 | READER_ON
+    private final AtomicInteger word = new AtomicInteger();
+
+    /**
+     * Claims the reader mode.
+     *
+     * @param readerMode {@link #NORMAL_MODE} or {@link #DISPATCH_MODE}
+     * @return false if the reader is claimed by another mode
+     */
+    boolean claimMode(String readerMode) {
+        int claimed = modeCode(readerMode);
+        int current;
+        do {
+            current = word.get();
+            int mode = (current & MODE_MASK) >>> MODE_SHIFT;
+            if (mode == claimed) {
+                return true;
+            }
+            if (mode != NO_MODE) {
+                return false;
+            }
+        } while (!word.compareAndSet(current, current | (claimed << MODE_SHIFT)));
+        return true;
+    }
+
+    void releaseMode() {
+        int current;
+        do {
+            current = word.get();
+        } while (!word.compareAndSet(current, current & ~MODE_MASK));
+    }
+
+    /**
+     * @return the claimed reader mode, or null
+     */
+    String mode() {
+        switch ((word.get() & MODE_MASK) >>> MODE_SHIFT) {
+            case NORMAL:
+                return NORMAL_MODE;
+            case DISPATCH:
+                return DISPATCH_MODE;
+            default:
+                return null;
+        }
+    }
+
+    private static int modeCode(String readerMode) {
+        switch (readerMode) {
+            case NORMAL_MODE:
+                return NORMAL;
+            case DISPATCH_MODE:
+                return DISPATCH;
+            default:
+                throw new IllegalArgumentException("unknown reader mode: " + readerMode);
+        }
+    }
+
+    /**
+     * Marks the reader as on. Writes in flight are kept.
+     */
+    void readerStarted() {
+        int current;
+        do {
+            current = word.get();
+        } while (!word.compareAndSet(current, current | READER_ON));
+    }
+
+    /**
+     * Marks the reader as off. Writes in flight are left to drain.
+     */
+    void readerStopped() {
+        int current;
+        do {
+            current = word.get();
+        } while (!word.compareAndSet(current, current & ~READER_ON));
+    }
+
+    boolean isReading() {
+        return (word.get() & READER_ON) != 0;
+    }
+
+    /**
+     * Must be paired with {@link #endWrite}.
+     */
+    void beginWrite() {
+        word.addAndGet(WRITE_UNIT);
+    }
+
+    void endWrite() {
+        word.addAndGet(-WRITE_UNIT);
+    }
+
+    int writesInFlight() {
+        return word.get() >>> WRITES_SHIFT;
+    }
+
+    int phase() {
+        return phase(word.get());
+    }
+
+    private static int phase(int word) {
+        boolean reading = (word & READER_ON) != 0;
+        boolean writing = (word >>> WRITES_SHIFT) > 0;
+        if (reading) {
+            return writing ? WRITING : READING;
+        }
+        return writing ? DRAINING : IDLE;
+    }
+
+    static String phaseName(int phase) {
+        switch (phase) {
+            case READING:
+                return "reading";
+            case WRITING:
+                return "writing";
+            case DRAINING:
+                return "draining";
+            default:
+                return "idle";
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package dev.semler.nfc_in_flutter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import dev.semler.nfc_in_flutter.codec.DecodeCache;
+import dev.semler.nfc_in_flutter.codec.RecordDecoderRegistry;
+
+/**
+ * ReadingConfig holds the reading options given to startNDEFReading. The
+ * options apply to every subscription to the tag stream, so a config is
+ * parsed and validated in full before anything is applied, and is replaced
+ * as a whole.
+ * <p>
+ * The decode cache belongs to the config, as cached records are only valid
+ * for the decoding options they were decoded with.
+ */
+final class ReadingConfig {
+    static final String MAP_WIRE_FORMAT = "map";
+    static final String FRAME_WIRE_FORMAT = "frame";
+
+    static final ReadingConfig DEFAULT = new ReadingConfig(MAP_WIRE_FORMAT, false, null, 0, false, 0,
+            1, 0, 0, TagEventDispatcher.DROP_OLDEST, 0, false);
+
+    final String wireFormat;
+    final boolean lazyDecoding;
+    // Names of the chosen decoders, or null to decode every record the
+    // default way
+    final List<String> decoderNames;
+    final RecordDecoderRegistry recordDecoders;
+    final long decodeCacheBytes;
+    // Decoded messages seen before, or null if they aren't cached
+    final DecodeCache decodeCache;
+    final boolean fastType2Reads;
+    // Payload chunk size of streamed tags, 0 if tags aren't streamed
+    final int streamChunkSize;
+    final int maxBatchSize;
+    final long maxBatchLatencyMillis;
+    final int queueCapacity;
+    final int queuePolicy;
+    final long dedupTTLMillis;
+    final boolean dedupByContent;
+
+    private ReadingConfig(String wireFormat, boolean lazyDecoding, List<String> decoderNames, long decodeCacheBytes,
+                          boolean fastType2Reads, int streamChunkSize, int maxBatchSize, long maxBatchLatencyMillis,
+                          int queueCapacity, int queuePolicy, long dedupTTLMillis, boolean dedupByContent) {
+        this.wireFormat = wireFormat;
+        this.lazyDecoding = lazyDecoding;
+        this.decoderNames = decoderNames;
+        this.recordDecoders = decoderNames != null ? RecordDecoderRegistry.withBuiltIns(decoderNames) : null;
+        this.decodeCacheBytes = decodeCacheBytes;
+        this.decodeCache = decodeCacheBytes > 0 ? new DecodeCache(decodeCacheBytes) : null;
+        this.fastType2Reads = fastType2Reads;
+        this.streamChunkSize = streamChunkSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchLatencyMillis = maxBatchLatencyMillis;
+        this.queueCapacity = queueCapacity;
+        this.queuePolicy = queuePolicy;
+        this.dedupTTLMillis = dedupTTLMillis;
+        this.dedupByContent = dedupByContent;
+    }
+
+    private ReadingConfig(ReadingConfig config, DecodeCache decodeCache) {
+        this.wireFormat = config.wireFormat;
+        this.lazyDecoding = config.lazyDecoding;
+        this.decoderNames = config.decoderNames;
+        this.recordDecoders = config.recordDecoders;
+        this.decodeCacheBytes = config.decodeCacheBytes;
+        this.decodeCache = decodeCache;
+        this.fastType2Reads = config.fastType2Reads;
+        this.streamChunkSize = config.streamChunkSize;
+        this.maxBatchSize = config.maxBatchSize;
+        this.maxBatchLatencyMillis = config.maxBatchLatencyMillis;
+        this.queueCapacity = config.queueCapacity;
+        this.queuePolicy = config.queuePolicy;
+        this.dedupTTLMillis = config.dedupTTLMillis;
+        this.dedupByContent = config.dedupByContent;
+    }
+
+    /**
+     * Parses the options map sent by startNDEFReading. Missing options get
+     * their defaults.
+     *
+     * @throws IllegalArgumentException if an option is invalid
+     */
+    static ReadingConfig fromMap(Map<?, ?> options) {
+        String wireFormat = (String) options.get("wire_format");
+        if (wireFormat == null) {
+            wireFormat = MAP_WIRE_FORMAT;
+        } else if (!wireFormat.equals(MAP_WIRE_FORMAT) && !wireFormat.equals(FRAME_WIRE_FORMAT)) {
+            throw new IllegalArgumentException("unknown wire format: " + wireFormat);
+        }
+        List<String> decoderNames = null;
+        Object decoders = options.get("decoders");
+        if (decoders instanceof List) {
+            decoderNames = new ArrayList<>();
+            for (Object name : (List<?>) decoders) {
+                if (!(name instanceof String)) {
+                    throw new IllegalArgumentException("decoder names must be strings");
+                }
+                decoderNames.add((String) name);
+            }
+        }
+        Number decodeCacheBytes = (Number) options.get("decode_cache_bytes");
+        Number streamChunkSize = (Number) options.get("stream_chunk_size");
+        Number maxBatchSize = (Number) options.get("max_batch_size");
+        Number maxBatchLatency = (Number) options.get("max_batch_latency_ms");
+        Number queueCapacity = (Number) options.get("queue_capacity");
+        Number dedupTTL = (Number) options.get("dedup_ttl_ms");
+        return new ReadingConfig(
+                wireFormat,
+                Boolean.TRUE.equals(options.get("lazy_decoding")),
+                decoderNames,
+                decodeCacheBytes != null ? Math.max(0, decodeCacheBytes.longValue()) : 0,
+                Boolean.TRUE.equals(options.get("fast_type2_reads")),
+                streamChunkSize != null ? Math.max(0, streamChunkSize.intValue()) : 0,
+                maxBatchSize != null ? maxBatchSize.intValue() : 1,
+                maxBatchLatency != null ? maxBatchLatency.longValue() : 0,
+                queueCapacity != null ? queueCapacity.intValue() : 0,
+                queuePolicy((String) options.get("queue_policy")),
+                dedupTTL != null ? dedupTTL.longValue() : 0,
+                Boolean.TRUE.equals(options.get("dedup_by_content")));
+    }
+
+    private static int queuePolicy(String name) {
+        if (name == null) {
+            return TagEventDispatcher.DROP_OLDEST;
+        }
+        switch (name) {
+            case "drop_oldest":
+                return TagEventDispatcher.DROP_OLDEST;
+            case "drop_newest":
+                return TagEventDispatcher.DROP_NEWEST;
+            case "coalesce":
+                return TagEventDispatcher.COALESCE;
+            case "pause_reader":
+                return TagEventDispatcher.PAUSE_READER;
+            default:
+                throw new IllegalArgumentException("unknown queue policy: " + name);
+        }
+    }
+
+    boolean isFrameWireFormat() {
+        return FRAME_WIRE_FORMAT.equals(wireFormat);
+    }
+
+    /**
+     * @return this config, using the warm decode cache of previous if it
+     * caches the same way
+     */
+    ReadingConfig keepingCacheOf(ReadingConfig previous) {
+        if (previous.decodeCache == null || previous.decodeCacheBytes != decodeCacheBytes || !decodesLike(previous)) {
+            return this;
+        }
+        return new ReadingConfig(this, previous.decodeCache);
+    }
+
+    /**
+     * @return true if records decoded with other are decoded the same way
+     * with this config, so cached records can be kept
+     */
+    boolean decodesLike(ReadingConfig other) {
+        return lazyDecoding == other.lazyDecoding
+                && (decoderNames == null ? other.decoderNames == null : decoderNames.equals(other.decoderNames));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ReadingConfig)) {
+            return false;
+        }
+        ReadingConfig other = (ReadingConfig) o;
+        return wireFormat.equals(other.wireFormat)
+                && decodesLike(other)
+                && decodeCacheBytes == other.decodeCacheBytes
+                && fastType2Reads == other.fastType2Reads
+                && streamChunkSize == other.streamChunkSize
+                && maxBatchSize == other.maxBatchSize
+                && maxBatchLatencyMillis == other.maxBatchLatencyMillis
+                && queueCapacity == other.queueCapacity
+                && queuePolicy == other.queuePolicy
+                && dedupTTLMillis == other.dedupTTLMillis
+                && dedupByContent == other.dedupByContent;
+    }
+
+    @Override
+    public int hashCode() {
+        return wireFormat.hashCode() * 31 + streamChunkSize;
+    }
+}
@@ -0,0 +1,99 @@
+package dev.semler.nfc_in_flutter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ScanStats collects per-phase latencies and counters for tag reads and
+ * writes. Recording is lock-free and allocation free, so it can stay enabled
+ * in production. Phases are timed with the monotonic System.nanoTime clock.
+ */
+class ScanStats {
+    static final int CONNECT = 0;
+    static final int READ = 1;
+    static final int CLOSE = 2;
+    static final int DECODE = 3;
+    // Time from the oldest queued event being queued until the main looper
+    // flushes the queue
+    static final int POST = 4;
+    // Time spent handing a channel message to the event sink
+    static final int DELIVER = 5;
+    static final int WRITE = 6;
+    static final int FORMAT = 7;
+
+    private static final String[] PHASE_NAMES = {
+            "connect",
+            "read",
+            "close",
+            "decode",
+            "post",
+            "deliver",
+            "write",
+            "format",
+    };
+
+    private final LatencyHistogram[] phases = new LatencyHistogram[PHASE_NAMES.length];
+    private final AtomicLong tags = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    ScanStats() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, as returned by
+     * {@link #now()}, for the given phase.
+     */
+    void record(int phase, long startNanos) {
+        phases[phase].record(now() - startNanos);
+    }
+
+    void countTag() {
+        tags.incrementAndGet();
+    }
+
+    void countError() {
+        errors.incrementAndGet();
+    }
+
+    void countBytesRead(int bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    void countBytesWritten(int bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    void reset() {
+        for (LatencyHistogram phase : phases) {
+            phase.reset();
+        }
+        tags.set(0);
+        errors.set(0);
+        bytesRead.set(0);
+        bytesWritten.set(0);
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> phaseMap = new HashMap<>();
+        for (int i = 0; i < phases.length; i++) {
+            phaseMap.put(PHASE_NAMES[i], phases[i].toMap());
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("phases", phaseMap);
+        map.put("tags", tags.get());
+        map.put("errors", errors.get());
+        map.put("bytes_read", bytesRead.get());
+        map.put("bytes_written", bytesWritten.get());
+        return map;
+    }
+}
@@ -0,0 +1,96 @@
+package dev.semler.nfc_in_flutter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TagDeduplicator suppresses tags that have been seen recently, so a tag
+ * lingering near the antenna or presented again is not connected to, read
+ * and sent to Dart every time it is discovered.
+ * <p>
+ * Tags are remembered by id in a bounded LRU map. A tag is a repeat if it was
+ * last seen less than the TTL ago; every sighting restarts its TTL. When
+ * content matching is enabled, a tag only counts as a repeat if its content
+ * hash is also unchanged.
+ */
+class TagDeduplicator {
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final long NO_CONTENT_HASH = 0;
+
+    private static final class Sighting {
+        long lastSeenMillis;
+        long contentHash;
+    }
+
+    private final LinkedHashMap<String, Sighting> seen;
+    private long ttlMillis = 0;
+    private boolean matchContent = false;
+    private long suppressed = 0;
+
+    TagDeduplicator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    TagDeduplicator(final int capacity) {
+        seen = new LinkedHashMap<String, Sighting>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Sighting> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param ttlMillis    how long a tag is remembered after it was last seen.
+     *                     0 disables deduplication.
+     * @param matchContent whether a tag with new content is let through even
+     *                     if its id has been seen
+     */
+    synchronized void configure(long ttlMillis, boolean matchContent) {
+        this.ttlMillis = Math.max(0, ttlMillis);
+        this.matchContent = matchContent;
+        seen.clear();
+    }
+
+    synchronized boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    synchronized boolean isMatchingContent() {
+        return matchContent;
+    }
+
+    /**
+     * Records a sighting of a tag.
+     *
+     * @param contentHash hash of the tag's content, ignored unless content
+     *                    matching is enabled
+     * @return true if the tag is a repeat and should be ignored
+     */
+    synchronized boolean suppress(String tagId, long contentHash, long nowMillis) {
+        if (ttlMillis == 0 || tagId == null || tagId.isEmpty()) {
+            return false;
+        }
+        if (!matchContent) {
+            contentHash = NO_CONTENT_HASH;
+        }
+        Sighting sighting = seen.get(tagId);
+        boolean repeat = sighting != null
+                && nowMillis - sighting.lastSeenMillis < ttlMillis
+                && sighting.contentHash == contentHash;
+        if (sighting == null) {
+            sighting = new Sighting();
+            seen.put(tagId, sighting);
+        }
+        sighting.lastSeenMillis = nowMillis;
+        sighting.contentHash = contentHash;
+        if (repeat) {
+            suppressed++;
+        }
+        return repeat;
+    }
+
+    synchronized long suppressedCount() {
+        return suppressed;
+    }
+}
@@ -0,0 +1,463 @@
+package dev.semler.nfc_in_flutter;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * TagEventDispatcher delivers tag events from any thread to the Flutter
+ * event sink on the main thread.
+ * <p>
+ * Events are queued and delivered by a single posted flush, so events that
+ * arrive before the main looper gets to the flush share one looper message.
+ * When batching is enabled, consecutive events are also sent to Dart as a
+ * single list, saving a platform channel hop per event.
+ * <p>
+ * The queue can be bounded, so memory stays flat when events arrive faster
+ * than they are delivered or while delivery is paused by the Dart listener.
+ * What happens to events that don't fit is decided by the queue policy.
+ * The queue never grows past its capacity. Errors push out queued tags
+ * before tags push out queued errors, so failures still reach Dart while
+ * tags are being dropped.
+ * <p>
+ * A dispatcher can be used directly as the stream handler of an event
+ * channel that has no other state to manage.
+ */
+class TagEventDispatcher implements EventChannel.StreamHandler {
+    // Drop the oldest queued event to make room
+    static final int DROP_OLDEST = 0;
+    // Drop the new event
+    static final int DROP_NEWEST = 1;
+    // Replace the queued event of the same tag, or else drop the oldest
+    static final int COALESCE = 2;
+    // Pause the reader until the queue has been delivered
+    static final int PAUSE_READER = 3;
+
+    /**
+     * ReaderControl pauses and resumes tag reading for the PAUSE_READER
+     * policy. Its methods are called on the main thread.
+     */
+    interface ReaderControl {
+        void pauseReader();
+
+        void resumeReader();
+    }
+
+    /**
+     * MainThread runs the dispatcher's work on the main thread. It is a
+     * Handler on the main looper, except in tests.
+     */
+    interface MainThread {
+        void post(Runnable runnable);
+
+        void postDelayed(Runnable runnable, long delayMillis);
+
+        void removeCallbacks(Runnable runnable);
+    }
+
+    private static final class LooperMainThread implements MainThread {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void post(Runnable runnable) {
+            handler.post(runnable);
+        }
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayMillis) {
+            handler.postDelayed(runnable, delayMillis);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            handler.removeCallbacks(runnable);
+        }
+    }
+
+    private static final class KeyedEvent {
+        final String key;
+        // Replaced when a newer event of the same tag is coalesced into it
+        Object event;
+
+        KeyedEvent(String key, Object event) {
+            this.key = key;
+            this.event = event;
+        }
+    }
+
+    private static final class ErrorEvent {
+        final String code;
+        final String message;
+        final Object details;
+
+        ErrorEvent(String code, String message, Object details) {
+            this.code = code;
+            this.message = message;
+            this.details = details;
+        }
+    }
+
+    private final ScanStats stats;
+    private final MainThread mainThread;
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    // The latest queued event of each tag, for coalescing
+    private final HashMap<String, KeyedEvent> pendingByKey = new HashMap<>();
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final Runnable pauseReader = new Runnable() {
+        @Override
+        public void run() {
+            if (takePauseRequest() && readerControl != null) {
+                readerControl.pauseReader();
+            }
+        }
+    };
+
+    private boolean flushScheduled = false;
+    // When the oldest pending event was queued
+    private long oldestQueuedAt;
+    private volatile int maxBatchSize = 1;
+    private long maxBatchLatencyMillis = 0;
+    // 0 leaves the queue unbounded
+    private int capacity = 0;
+    private int policy = DROP_OLDEST;
+    private boolean deliveryPaused = false;
+    // A pause of the reader has been posted, and the reader has been paused.
+    // The reader is only resumed if the pause actually ran, as a flush can
+    // run between the two.
+    private boolean pauseRequested = false;
+    private boolean readerPaused = false;
+    private long dropped = 0;
+    private int maxDepth = 0;
+    private volatile ReaderControl readerControl;
+
+    // Only accessed on the main thread
+    private EventChannel.EventSink sink;
+
+    /**
+     * @param stats receives post and delivery latencies, may be null
+     */
+    TagEventDispatcher(ScanStats stats) {
+        this(stats, new LooperMainThread());
+    }
+
+    TagEventDispatcher(ScanStats stats, MainThread mainThread) {
+        this.stats = stats;
+        this.mainThread = mainThread;
+    }
+
+    /**
+     * Sets the sink events are delivered to. Must be called on the main thread.
+     */
+    void setSink(EventChannel.EventSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void onListen(Object args, EventChannel.EventSink eventSink) {
+        setSink(eventSink);
+    }
+
+    @Override
+    public void onCancel(Object args) {
+        setSink(null);
+    }
+
+    /**
+     * @param maxBatchSize          the maximum number of events sent in one
+     *                              channel message. 1 disables batching.
+     * @param maxBatchLatencyMillis how long the first queued event may wait for
+     *                              others to join its batch
+     */
+    synchronized void configure(int maxBatchSize, long maxBatchLatencyMillis) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchLatencyMillis = Math.max(0, maxBatchLatencyMillis);
+    }
+
+    /**
+     * @param capacity the maximum number of queued events, 0 for no limit
+     * @param policy   what to do with events that don't fit
+     */
+    synchronized void configureQueue(int capacity, int policy) {
+        this.capacity = Math.max(0, capacity);
+        this.policy = policy;
+    }
+
+    void setReaderControl(ReaderControl readerControl) {
+        this.readerControl = readerControl;
+    }
+
+    /**
+     * Holds events in the queue until {@link #resume} is called, e.g. while
+     * the Dart listener is paused.
+     */
+    synchronized void pause() {
+        deliveryPaused = true;
+        mainThread.removeCallbacks(flush);
+        flushScheduled = false;
+    }
+
+    synchronized void resume() {
+        deliveryPaused = false;
+        if (!pending.isEmpty() && !flushScheduled) {
+            mainThread.post(flush);
+            flushScheduled = true;
+        }
+    }
+
+    void success(Object event) {
+        enqueue(null, event);
+    }
+
+    /**
+     * @param key identifies the tag the event belongs to, for coalescing
+     */
+    void success(String key, Object event) {
+        enqueue(key, event);
+    }
+
+    void error(String code, String message, Object details) {
+        enqueue(null, new ErrorEvent(code, message, details));
+    }
+
+    /**
+     * Adds the queue depth and dropped event counters to stats.
+     */
+    synchronized void putQueueStats(Map<String, Object> stats) {
+        stats.put("queue_depth", pending.size());
+        stats.put("max_queue_depth", maxDepth);
+        stats.put("dropped", dropped);
+    }
+
+    synchronized void resetQueueStats() {
+        maxDepth = pending.size();
+        dropped = 0;
+    }
+
+    /**
+     * Counts an event dropped before it got to the queue, because a stage
+     * before it was full. The queue policy is applied as if the event
+     * didn't fit in the queue.
+     *
+     * @return true if the oldest event waiting in that stage should be
+     * dropped instead of the new one
+     */
+    synchronized boolean dropBeforeQueue() {
+        dropped++;
+        switch (policy) {
+            case DROP_NEWEST:
+                return false;
+            case PAUSE_READER:
+                requestPause();
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Posts a pause of the reader, unless one is already posted or done.
+     */
+    private void requestPause() {
+        if (!pauseRequested && !readerPaused) {
+            pauseRequested = true;
+            mainThread.post(pauseReader);
+        }
+    }
+
+    /**
+     * @return true if a posted pause of the reader should still run, i.e.
+     * no flush has emptied the queue since it was posted
+     */
+    private synchronized boolean takePauseRequest() {
+        if (!pauseRequested) {
+            return false;
+        }
+        pauseRequested = false;
+        readerPaused = true;
+        return true;
+    }
+
+    private synchronized void enqueue(String key, Object event) {
+        if (policy == COALESCE && key != null && replace(key, event)) {
+            dropped++;
+            return;
+        }
+        if (capacity > 0 && pending.size() >= capacity) {
+            // Tags read while the reader is being paused are dropped like
+            // under DROP_NEWEST
+            boolean dropsNewest = policy == DROP_NEWEST || policy == PAUSE_READER;
+            if (policy == PAUSE_READER) {
+                requestPause();
+            }
+            dropped++;
+            boolean madeRoom;
+            if (event instanceof ErrorEvent) {
+                madeRoom = dropOldest(false) || (!dropsNewest && dropOldest(true));
+            } else {
+                madeRoom = !dropsNewest && (dropOldest(false) || dropOldest(true));
+            }
+            if (!madeRoom) {
+                return;
+            }
+        }
+        if (pending.isEmpty()) {
+            oldestQueuedAt = ScanStats.now();
+        }
+        if (key != null) {
+            KeyedEvent keyed = new KeyedEvent(key, event);
+            pendingByKey.put(key, keyed);
+            pending.add(keyed);
+        } else {
+            pending.add(event);
+        }
+        maxDepth = Math.max(maxDepth, pending.size());
+        if (deliveryPaused) {
+            return;
+        }
+        if (pending.size() >= maxBatchSize) {
+            // A full batch is waiting, don't hold it back any longer
+            mainThread.removeCallbacks(flush);
+            mainThread.post(flush);
+            flushScheduled = true;
+        } else if (!flushScheduled) {
+            if (maxBatchLatencyMillis > 0) {
+                mainThread.postDelayed(flush, maxBatchLatencyMillis);
+            } else {
+                mainThread.post(flush);
+            }
+            flushScheduled = true;
+        }
+    }
+
+    /**
+     * Replaces the latest queued event with the given key, keeping its place.
+     *
+     * @return false if no event with the key is queued
+     */
+    private boolean replace(String key, Object event) {
+        KeyedEvent queued = pendingByKey.get(key);
+        if (queued == null) {
+            return false;
+        }
+        queued.event = event;
+        return true;
+    }
+
+    /**
+     * Drops the oldest queued event.
+     *
+     * @param errors whether errors may be dropped
+     * @return false if no event could be dropped
+     */
+    private boolean dropOldest(boolean errors) {
+        Iterator<Object> it = pending.iterator();
+        while (it.hasNext()) {
+            Object event = it.next();
+            if (!errors && event instanceof ErrorEvent) {
+                continue;
+            }
+            it.remove();
+            if (event instanceof KeyedEvent) {
+                KeyedEvent keyed = (KeyedEvent) event;
+                if (pendingByKey.get(keyed.key) == keyed) {
+                    pendingByKey.remove(keyed.key);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized Object[] drain() {
+        flushScheduled = false;
+        if (deliveryPaused) {
+            return new Object[0];
+        }
+        if (stats != null && !pending.isEmpty()) {
+            stats.record(ScanStats.POST, oldestQueuedAt);
+        }
+        Object[] events = pending.toArray();
+        pending.clear();
+        pendingByKey.clear();
+        return events;
+    }
+
+    /**
+     * Cancels a posted pause of the reader that hasn't run yet.
+     *
+     * @return true if the reader was paused and should be resumed
+     */
+    private synchronized boolean takeReaderPaused() {
+        pauseRequested = false;
+        boolean paused = readerPaused;
+        readerPaused = false;
+        return paused;
+    }
+
+    private void flush() {
+        Object[] events = drain();
+        if (events.length > 0 && takeReaderPaused() && readerControl != null) {
+            readerControl.resumeReader();
+        }
+        if (sink == null) {
+            return;
+        }
+        List<Object> batch = null;
+        for (Object event : events) {
+            if (event instanceof KeyedEvent) {
+                event = ((KeyedEvent) event).event;
+            }
+            if (event instanceof ErrorEvent) {
+                // Errors are delivered on their own, in order
+                batch = send(batch);
+                ErrorEvent error = (ErrorEvent) event;
+                sink.error(error.code, error.message, error.details);
+                continue;
+            }
+            if (maxBatchSize == 1) {
+                deliver(event);
+                continue;
+            }
+            if (batch == null) {
+                batch = new ArrayList<>(Math.min(events.length, maxBatchSize));
+            }
+            batch.add(event);
+            if (batch.size() >= maxBatchSize) {
+                batch = send(batch);
+            }
+        }
+        send(batch);
+    }
+
+    /**
+     * Sends a batch and returns null, so the caller can start a new one.
+     */
+    private List<Object> send(List<Object> batch) {
+        if (batch == null || batch.isEmpty()) {
+            return null;
+        }
+        deliver(batch.size() == 1 ? batch.get(0) : batch);
+        return null;
+    }
+
+    private void deliver(Object message) {
+        long start = ScanStats.now();
+        sink.success(message);
+        if (stats != null) {
+            stats.record(ScanStats.DELIVER, start);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dev.semler.nfc_in_flutter;
+
+import android.nfc.Tag;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import dev.semler.nfc_in_flutter.codec.Hex;
+
+/**
+ * TagIdCache remembers the hex encoded ids of the most recently discovered
+ * tags, so a tag's id is only encoded once no matter how many times it is
+ * formatted. Tags are compared by identity; every discovery of a tag yields a
+ * new Tag instance, so a stale entry can never be returned for a new tag.
+ * <p>
+ * Tags delivered to Dart are also remembered by id, so an operation from Dart
+ * finds the tag it is for however many tags were discovered since. They are
+ * forgotten when the tag is lost, or when too many other tags have been
+ * delivered since.
+ */
+class TagIdCache {
+    private final Tag[] tags;
+    private final String[] ids;
+    private int next = 0;
+    private final int maxDelivered;
+    // In access order, least recently used first
+    private final LinkedHashMap<String, Tag> delivered = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param capacity     the number of ids cached by identity
+     * @param maxDelivered the number of delivered tags that can be found by
+     *                     id
+     */
+    TagIdCache(int capacity, int maxDelivered) {
+        tags = new Tag[capacity];
+        ids = new String[capacity];
+        this.maxDelivered = maxDelivered;
+    }
+
+    synchronized String get(Tag tag) {
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i] == tag) {
+                return ids[i];
+            }
+        }
+        String id = Hex.encode(tag.getId());
+        tags[next] = tag;
+        ids[next] = id;
+        next = (next + 1) % tags.length;
+        return id;
+    }
+
+    /**
+     * Remembers a tag delivered to Dart, replacing an earlier discovery of
+     * the same tag.
+     *
+     * @return the tag's id
+     */
+    synchronized String remember(Tag tag) {
+        String id = get(tag);
+        delivered.put(id, tag);
+        if (delivered.size() > maxDelivered) {
+            Iterator<String> eldest = delivered.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return id;
+    }
+
+    /**
+     * Forgets a lost tag, unless it has been discovered again since.
+     */
+    synchronized void forget(Tag tag) {
+        String id = get(tag);
+        if (delivered.get(id) == tag) {
+            delivered.remove(id);
+        }
+    }
+
+    /**
+     * @return the last delivered tag with the given id, or null
+     */
+    synchronized Tag find(String id) {
+        return delivered.get(id);
+    }
+}
@@ -0,0 +1,177 @@
+package dev.semler.nfc_in_flutter;
+
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+import android.nfc.tech.Ndef;
+import android.nfc.tech.NfcA;
+import android.nfc.tech.NfcB;
+import android.nfc.tech.NfcF;
+import android.nfc.tech.NfcV;
+import android.nfc.tech.TagTechnology;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TagSession keeps a connection to a tag open across several operations, so
+ * reading a tag and writing it back costs a single connect.
+ * <p>
+ * Android only allows one technology of a tag to be connected at a time, so
+ * switching technology, e.g. from NDEF reads to raw NfcA commands, closes the
+ * previous connection. Sessions are not thread safe and must only be used on
+ * the NFC I/O thread.
+ */
+class TagSession {
+    private static final String LOG_TAG = "NfcInFlutterPlugin";
+
+    static final String CLOSED = "closed";
+    static final String IDLE = "idle";
+    static final String LOST = "lost";
+
+    static final String NDEF = "ndef";
+    static final String NFC_A = "nfc_a";
+    static final String NFC_B = "nfc_b";
+    static final String NFC_F = "nfc_f";
+    static final String NFC_V = "nfc_v";
+    static final String ISO_DEP = "iso_dep";
+
+    final int handle;
+    final Tag tag;
+    private final long idleTimeoutMillis;
+
+    private TagTechnology connected;
+    private String connectedName;
+    private long lastUsedAt;
+    private String closeReason;
+
+    /**
+     * @param idleTimeoutMillis how long the session may go unused before it
+     *                          is closed, 0 to never time out
+     */
+    TagSession(int handle, Tag tag, long idleTimeoutMillis, long now) {
+        this.handle = handle;
+        this.tag = tag;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.lastUsedAt = now;
+    }
+
+    /**
+     * @return why the session was closed, or null if it is open
+     */
+    String closeReason() {
+        return closeReason;
+    }
+
+    void touch(long now) {
+        lastUsedAt = now;
+    }
+
+    /**
+     * @return the tag's Ndef technology, connected
+     */
+    Ndef ndef() throws IOException, NfcInFlutterException {
+        return (Ndef) connect(NDEF);
+    }
+
+    /**
+     * Sends a raw command to the tag using the given technology.
+     */
+    byte[] transceive(String technology, byte[] data) throws IOException, NfcInFlutterException {
+        TagTechnology tech = connect(technology);
+        switch (technology) {
+            case NFC_A:
+                return ((NfcA) tech).transceive(data);
+            case NFC_B:
+                return ((NfcB) tech).transceive(data);
+            case NFC_F:
+                return ((NfcF) tech).transceive(data);
+            case NFC_V:
+                return ((NfcV) tech).transceive(data);
+            case ISO_DEP:
+                return ((IsoDep) tech).transceive(data);
+            default:
+                throw new NfcInFlutterException("NFCTechnologyUnsupported", "transceive is not supported by " + technology, null);
+        }
+    }
+
+    private TagTechnology connect(String name) throws IOException, NfcInFlutterException {
+        if (closeReason != null) {
+            throw closedException(closeReason);
+        }
+        if (name.equals(connectedName)) {
+            return connected;
+        }
+        TagTechnology tech = technology(name);
+        if (tech == null) {
+            throw new NfcInFlutterException("NFCTechnologyUnsupported", "tag doesn't support " + name, null);
+        }
+        disconnect();
+        tech.connect();
+        connected = tech;
+        connectedName = name;
+        return tech;
+    }
+
+    private TagTechnology technology(String name) {
+        switch (name) {
+            case NDEF:
+                return Ndef.get(tag);
+            case NFC_A:
+                return NfcA.get(tag);
+            case NFC_B:
+                return NfcB.get(tag);
+            case NFC_F:
+                return NfcF.get(tag);
+            case NFC_V:
+                return NfcV.get(tag);
+            case ISO_DEP:
+                return IsoDep.get(tag);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * check returns why the session should be closed, or null if it should
+     * stay open. isConnected asks the NFC service whether the tag is still
+     * present, which is cheaper than sending it a command.
+     */
+    String check(long now) {
+        if (idleTimeoutMillis > 0 && now - lastUsedAt >= idleTimeoutMillis) {
+            return IDLE;
+        }
+        if (connected != null && !connected.isConnected()) {
+            return LOST;
+        }
+        return null;
+    }
+
+    void close(String reason) {
+        if (closeReason != null) {
+            return;
+        }
+        closeReason = reason;
+        disconnect();
+    }
+
+    private void disconnect() {
+        if (connected == null) {
+            return;
+        }
+        try {
+            connected.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "close tag session error: " + e.getMessage());
+        }
+        connected = null;
+        connectedName = null;
+    }
+
+    static NfcInFlutterException closedException(String reason) {
+        Map<String, Object> details = new HashMap<>();
+        details.put("reason", reason);
+        return new NfcInFlutterException("NFCSessionClosed", "the tag session is closed", details);
+    }
+}
@@ -0,0 +1,27 @@
+package dev.semler.nfc_in_flutter.codec;
+
+/**
+ * ContentHash computes 64-bit FNV-1a hashes of tag contents. It is fast and
+ * allocation free, but not cryptographic; it is only meant for recognizing
+ * content that has been seen before.
+ */
+public final class ContentHash {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private ContentHash() {
+    }
+
+    public static long hash(byte[] data) {
+        return data == null ? OFFSET_BASIS : hash(data, 0, data.length);
+    }
+
+    public static long hash(byte[] data, int offset, int length) {
+        long hash = OFFSET_BASIS;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash ^= data[i] & 0xFF;
+            hash *= PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,139 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DecodeCache is a bounded LRU cache of decoded NDEF messages, keyed by the
+ * {@link ContentHash} of the serialized message and the tag type. Apps that
+ * see the same few messages over and over, such as shelf labels, then only
+ * decode each of them once.
+ * <p>
+ * Cached record lists are shared between events and must not be modified.
+ * The message is kept with its records and compared on every hit, so a
+ * hash collision is a miss rather than a wrong result.
+ * <p>
+ * The memory cap is enforced on an estimate of each entry's size, as the
+ * exact size of the decoded maps and strings can't be measured.
+ */
+public final class DecodeCache {
+    // Estimated size of a decoded record, besides its payload
+    private static final int RECORD_OVERHEAD = 128;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final class Key {
+        final long hash;
+        final String tagType;
+
+        Key(long hash, String tagType) {
+            this.hash = hash;
+            this.tagType = tagType != null ? tagType : "";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && tagType.equals(other.tagType);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32)) * 31 + tagType.hashCode();
+        }
+    }
+
+    private static final class Entry {
+        final byte[] message;
+        final List<Map<String, Object>> records;
+        final long size;
+
+        Entry(byte[] message, List<Map<String, Object>> records, long size) {
+            this.message = message;
+            this.records = records;
+            this.size = size;
+        }
+    }
+
+    private final long maxBytes;
+    // In access order, least recently used first
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public DecodeCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the decoded records of message, or null if they aren't cached
+     */
+    public synchronized List<Map<String, Object>> get(byte[] message, String tagType) {
+        Entry entry = entries.get(new Key(ContentHash.hash(message), tagType));
+        if (entry == null || !Arrays.equals(entry.message, message)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.records;
+    }
+
+    /**
+     * Caches the decoded records of message, evicting the least recently
+     * used entries to stay under the memory cap.
+     *
+     * @return the records as they should be used from now on
+     */
+    public synchronized List<Map<String, Object>> put(byte[] message, String tagType, List<Map<String, Object>> records) {
+        List<Map<String, Object>> shared = Collections.unmodifiableList(records);
+        // Decoding keeps a copy of the payloads and up to two strings of
+        // them, which take two bytes per character
+        long size = ENTRY_OVERHEAD + 6L * message.length + (long) RECORD_OVERHEAD * records.size();
+        if (size > maxBytes) {
+            return shared;
+        }
+        Entry previous = entries.put(new Key(ContentHash.hash(message), tagType),
+                new Entry(Arrays.copyOf(message, message.length), shared, size));
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += size;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().size;
+            iterator.remove();
+            evictions++;
+        }
+        return shared;
+    }
+
+    /**
+     * Adds the hit, miss and eviction counters and the cache's estimated
+     * size to stats.
+     */
+    public synchronized void putStats(Map<String, Object> stats) {
+        stats.put("decode_cache_hits", hits);
+        stats.put("decode_cache_misses", misses);
+        stats.put("decode_cache_evictions", evictions);
+        stats.put("decode_cache_entries", entries.size());
+        stats.put("decode_cache_bytes", bytes);
+    }
+
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+}
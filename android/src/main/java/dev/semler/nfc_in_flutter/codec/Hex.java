@@ -0,0 +1,44 @@
+package dev.semler.nfc_in_flutter.codec;
+
+/**
+ * Hex encodes tag ids as uppercase hexadecimal strings.
+ */
+public final class Hex {
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private Hex() {
+    }
+
+    public static String encode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return "";
+        }
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            chars[j++] = DIGITS[b >>> 4];
+            chars[j++] = DIGITS[b & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @throws IllegalArgumentException if hex isn't an even number of hex
+     *                                  digits
+     */
+    public static byte[] decode(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("hex string has an odd length");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("invalid hex digit");
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,217 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NdefDecoder converts serialized NDEF messages into the record maps sent
+ * over the tag event channel.
+ * <p>
+ * The decoder works directly on the bytes returned by
+ * NdefMessage.toByteArray(), so the only objects allocated per record are the
+ * ones handed to Flutter: the record map, its strings and the raw payload.
+ */
+public final class NdefDecoder {
+    public static final byte RTD_TEXT = 0x54; // "T"
+    public static final byte RTD_URI = 0x55; // "U"
+
+    public static final int TNF_EMPTY = 0x00;
+    public static final int TNF_WELL_KNOWN = 0x01;
+    public static final int TNF_MIME_MEDIA = 0x02;
+    public static final int TNF_ABSOLUTE_URI = 0x03;
+    public static final int TNF_EXTERNAL_TYPE = 0x04;
+    public static final int TNF_UNKNOWN = 0x05;
+    public static final int TNF_UNCHANGED = 0x06;
+
+    // Indexed by the 3-bit TNF field. 0x07 is reserved and reported as unknown.
+    private static final String[] TNF_NAMES = {
+            "empty",
+            "well_known",
+            "mime_media",
+            "absolute_uri",
+            "external_type",
+            "unknown",
+            "unchanged",
+            "unknown",
+    };
+
+    // Indexed by the URI identifier code of a well known URI record.
+    // https://android.googlesource.com/platform/frameworks/base/+/master/core/java/android/nfc/NdefRecord.java#238
+    private static final String[] URI_PREFIXES = {
+            "", // 0x00
+            "http://www.", // 0x01
+            "https://www.", // 0x02
+            "http://", // 0x03
+            "https://", // 0x04
+            "tel:", // 0x05
+            "mailto:", // 0x06
+            "ftp://anonymous:anonymous@", // 0x07
+            "ftp://ftp.", // 0x08
+            "ftps://", // 0x09
+            "sftp://", // 0x0A
+            "smb://", // 0x0B
+            "nfs://", // 0x0C
+            "ftp://", // 0x0D
+            "dav://", // 0x0E
+            "news:", // 0x0F
+            "telnet://", // 0x10
+            "imap:", // 0x11
+            "rtsp://", // 0x12
+            "urn:", // 0x13
+            "pop:", // 0x14
+            "sip:", // 0x15
+            "sips:", // 0x16
+            "tftp:", // 0x17
+            "btspp://", // 0x18
+            "btl2cap://", // 0x19
+            "btgoep://", // 0x1A
+            "tcpobex://", // 0x1B
+            "irdaobex://", // 0x1C
+            "file://", // 0x1D
+            "urn:epc:id:", // 0x1E
+            "urn:epc:tag:", // 0x1F
+            "urn:epc:pat:", // 0x20
+            "urn:epc:raw:", // 0x21
+            "urn:epc:", // 0x22
+            "urn:nfc:", // 0x23
+    };
+
+    private NdefDecoder() {
+    }
+
+    /**
+     * @return the name used on the event channel for the given TNF
+     */
+    public static String tnfName(int tnf) {
+        return TNF_NAMES[tnf & 0x07];
+    }
+
+    /**
+     * @return the URI prefix for the given identifier code, or an empty
+     * string if the code is not defined
+     */
+    public static String uriPrefix(int code) {
+        code &= 0xFF;
+        return code < URI_PREFIXES.length ? URI_PREFIXES[code] : "";
+    }
+
+    /**
+     * Decodes every record of a serialized NDEF message.
+     */
+    public static List<Map<String, Object>> decodeRecords(byte[] message) throws NdefFormatException {
+        return decodeRecords(message, false);
+    }
+
+    /**
+     * Decodes every record of a serialized NDEF message.
+     *
+     * @param lazy if true, only the raw payload, type, id and tnf are
+     *             included and the payload strings are left for the Dart
+     *             side to decode on demand
+     */
+    public static List<Map<String, Object>> decodeRecords(byte[] message, boolean lazy) throws NdefFormatException {
+        NdefReader reader = new NdefReader(message);
+        List<Map<String, Object>> records = new ArrayList<>();
+        while (reader.next()) {
+            records.add(lazy ? decodeRecordLazily(reader) : decodeRecord(reader));
+        }
+        return records;
+    }
+
+    /**
+     * Decodes the record the reader is currently positioned at, leaving the
+     * payload undecoded.
+     */
+    public static Map<String, Object> decodeRecordLazily(NdefReader reader) {
+        final byte[] buffer = reader.buffer();
+        final int offset = reader.payloadOffset();
+
+        Map<String, Object> record = new HashMap<>(4);
+        record.put("rawPayload", Arrays.copyOfRange(buffer, offset, offset + reader.payloadLength()));
+        record.put("id", new String(buffer, reader.idOffset(), reader.idLength(), StandardCharsets.UTF_8));
+        record.put("type", new String(buffer, reader.typeOffset(), reader.typeLength(), StandardCharsets.UTF_8));
+        record.put("tnf", tnfName(reader.tnf()));
+        return record;
+    }
+
+    /**
+     * Decodes the record the reader is currently positioned at.
+     *
+     * @throws NdefFormatException if a well known text record's language
+     *                             code is longer than its payload
+     */
+    public static Map<String, Object> decodeRecord(NdefReader reader) throws NdefFormatException {
+        final byte[] buffer = reader.buffer();
+        final int tnf = reader.tnf();
+        final int offset = reader.payloadOffset();
+        final int length = reader.payloadLength();
+
+        Map<String, Object> record = new HashMap<>(8);
+        record.put("rawPayload", Arrays.copyOfRange(buffer, offset, offset + length));
+
+        if (tnf == TNF_WELL_KNOWN && reader.typeIs(RTD_URI) && length > 0) {
+            putUri(reader, record);
+        } else if (tnf == TNF_WELL_KNOWN && reader.typeIs(RTD_TEXT) && length > 0) {
+            putText(reader, record);
+        } else {
+            putUtf8(reader, record);
+        }
+
+        record.put("id", new String(buffer, reader.idOffset(), reader.idLength(), StandardCharsets.UTF_8));
+        record.put("type", new String(buffer, reader.typeOffset(), reader.typeLength(), StandardCharsets.UTF_8));
+        record.put("tnf", tnfName(tnf));
+        return record;
+    }
+
+    /**
+     * Adds the payload and data of a non-empty well known URI record.
+     */
+    static void putUri(NdefReader reader, Map<String, Object> record) {
+        final byte[] buffer = reader.buffer();
+        final int offset = reader.payloadOffset();
+        // The first payload byte abbreviates the URI prefix, which must be
+        // added to the payload
+        String data = new String(buffer, offset + 1, reader.payloadLength() - 1, StandardCharsets.UTF_8);
+        String prefix = uriPrefix(buffer[offset]);
+        record.put("data", data);
+        record.put("payload", prefix.isEmpty() ? data : prefix.concat(data));
+    }
+
+    /**
+     * Adds the payload, data and language code of a non-empty well known
+     * text record.
+     *
+     * @throws NdefFormatException if the language code is longer than the
+     *                             payload
+     */
+    static void putText(NdefReader reader, Map<String, Object> record) throws NdefFormatException {
+        final byte[] buffer = reader.buffer();
+        final int offset = reader.payloadOffset();
+        final int length = reader.payloadLength();
+        int status = buffer[offset];
+        Charset charset = (status & 0x80) == 0 ? StandardCharsets.UTF_8 : StandardCharsets.UTF_16;
+        int languageCodeLength = status & 0x3F;
+        if (languageCodeLength > length - 1) {
+            throw new NdefFormatException("language code of text record is longer than its payload");
+        }
+        int textOffset = offset + 1 + languageCodeLength;
+        record.put("payload", new String(buffer, offset + 1, length - 1, charset));
+        record.put("languageCode", new String(buffer, offset + 1, languageCodeLength, StandardCharsets.US_ASCII));
+        record.put("data", new String(buffer, textOffset, offset + length - textOffset, charset));
+    }
+
+    /**
+     * Adds the payload decoded as UTF-8 as both payload and data.
+     */
+    static void putUtf8(NdefReader reader, Map<String, Object> record) {
+        // payload and data are identical, so decode the string once
+        String payload = new String(reader.buffer(), reader.payloadOffset(), reader.payloadLength(), StandardCharsets.UTF_8);
+        record.put("payload", payload);
+        record.put("data", payload);
+    }
+}
@@ -0,0 +1,14 @@
+package dev.semler.nfc_in_flutter.codec;
+
+/**
+ * NdefFormatException is thrown when raw NDEF bytes can not be parsed.
+ * It mirrors android.nfc.FormatException so the codec package does not
+ * depend on the Android SDK.
+ */
+public class NdefFormatException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public NdefFormatException(String message) {
+        super(message);
+    }
+}
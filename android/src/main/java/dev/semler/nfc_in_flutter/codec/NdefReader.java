@@ -0,0 +1,193 @@
+package dev.semler.nfc_in_flutter.codec;
+
+/**
+ * NdefReader walks the records of a serialized NDEF message without copying
+ * anything. After each successful call to {@link #next()} the reader exposes
+ * the offsets and lengths of the current record's type, id and payload in the
+ * underlying buffer.
+ * <p>
+ * A reader can be reused for several messages by calling {@link #reset}.
+ */
+public final class NdefReader {
+    private static final int FLAG_MB = 0x80;
+    private static final int FLAG_ME = 0x40;
+    private static final int FLAG_CF = 0x20;
+    private static final int FLAG_SR = 0x10;
+    private static final int FLAG_IL = 0x08;
+
+    private byte[] buffer;
+    private int position;
+    private int end;
+    private boolean done;
+    private int index;
+
+    private int header;
+    private int typeOffset;
+    private int typeLength;
+    private int idOffset;
+    private int idLength;
+    private int payloadOffset;
+    private int payloadLength;
+
+    public NdefReader() {
+    }
+
+    public NdefReader(byte[] buffer) {
+        reset(buffer, 0, buffer.length);
+    }
+
+    public NdefReader reset(byte[] buffer) {
+        return reset(buffer, 0, buffer.length);
+    }
+
+    public NdefReader reset(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.end = offset + length;
+        this.done = length == 0;
+        this.index = -1;
+        return this;
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return false when the message end has been reached
+     */
+    public boolean next() throws NdefFormatException {
+        if (done) {
+            return false;
+        }
+        if (position >= end) {
+            throw new NdefFormatException("unexpected end of NDEF message");
+        }
+        header = buffer[position++] & 0xFF;
+        index++;
+        if (index == 0 && (header & FLAG_MB) == 0) {
+            throw new NdefFormatException("first record is missing the MB flag");
+        }
+        if ((header & FLAG_CF) != 0) {
+            throw new NdefFormatException("chunked records are not supported");
+        }
+
+        typeLength = readByte();
+        if ((header & FLAG_SR) != 0) {
+            payloadLength = readByte();
+        } else {
+            require(4);
+            payloadLength = ((buffer[position] & 0xFF) << 24)
+                    | ((buffer[position + 1] & 0xFF) << 16)
+                    | ((buffer[position + 2] & 0xFF) << 8)
+                    | (buffer[position + 3] & 0xFF);
+            position += 4;
+            if (payloadLength < 0) {
+                throw new NdefFormatException("payload is too large");
+            }
+        }
+        idLength = (header & FLAG_IL) != 0 ? readByte() : 0;
+
+        typeOffset = position;
+        require(typeLength);
+        position += typeLength;
+        idOffset = position;
+        require(idLength);
+        position += idLength;
+        payloadOffset = position;
+        require(payloadLength);
+        position += payloadLength;
+
+        if ((header & FLAG_ME) != 0) {
+            done = true;
+        } else if (position >= end) {
+            throw new NdefFormatException("last record is missing the ME flag");
+        }
+        return true;
+    }
+
+    private int readByte() throws NdefFormatException {
+        require(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    private void require(int length) throws NdefFormatException {
+        if (length > end - position) {
+            throw new NdefFormatException("unexpected end of NDEF message");
+        }
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the zero-based index of the current record
+     */
+    public int index() {
+        return index;
+    }
+
+    public int tnf() {
+        return header & 0x07;
+    }
+
+    public int typeOffset() {
+        return typeOffset;
+    }
+
+    public int typeLength() {
+        return typeLength;
+    }
+
+    public int idOffset() {
+        return idOffset;
+    }
+
+    public int idLength() {
+        return idLength;
+    }
+
+    public int payloadOffset() {
+        return payloadOffset;
+    }
+
+    public int payloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * @return true if the current record's type equals the single byte {@code type}
+     */
+    public boolean typeIs(byte type) {
+        return typeLength == 1 && buffer[typeOffset] == type;
+    }
+
+    /**
+     * @return true if the current record's type equals {@code type}
+     */
+    public boolean typeIs(byte[] type) {
+        if (typeLength != type.length) {
+            return false;
+        }
+        for (int i = 0; i < typeLength; i++) {
+            if (buffer[typeOffset + i] != type[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the current record's type starts with {@code prefix}
+     */
+    public boolean typeStartsWith(byte[] prefix) {
+        if (typeLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[typeOffset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * NdefStreamEncoder splits a serialized NDEF message into a sequence of small
+ * events, so large messages can be delivered and processed incrementally
+ * instead of as one map holding every decoded record.
+ * <p>
+ * A tag is sent as a {@code header} event, then for each record a
+ * {@code record} event followed by its payload in {@code chunk} events of at
+ * most chunkSize bytes, and finally an {@code end} event. Every event carries
+ * the tag id and the number of payload bytes sent so far out of the total,
+ * so the receiver can report progress. Payloads are sent as raw bytes and
+ * never decoded to strings.
+ */
+public final class NdefStreamEncoder {
+    public static final String MESSAGE_TYPE = "ndef_stream";
+
+    /**
+     * EventSink receives the events of a streamed tag, in order.
+     */
+    public interface EventSink {
+        void event(Map<String, Object> event);
+    }
+
+    private NdefStreamEncoder() {
+    }
+
+    /**
+     * Streams message to sink. The whole message is validated before the
+     * first event is sent, so a malformed message sends no events.
+     *
+     * @param message the serialized message, or null if the tag is empty
+     */
+    public static void encode(String tagId, String tagType, boolean writable, byte[] message, int chunkSize, EventSink sink) throws NdefFormatException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        int recordCount = 0;
+        int totalBytes = 0;
+        NdefReader reader = null;
+        if (message != null && message.length > 0) {
+            reader = new NdefReader(message);
+            while (reader.next()) {
+                recordCount++;
+                totalBytes += reader.payloadLength();
+            }
+            reader.reset(message);
+        }
+
+        Map<String, Object> header = event(tagId, "header", 0, totalBytes);
+        header.put("type", tagType);
+        header.put("writable", writable);
+        header.put("record_count", recordCount);
+        sink.event(header);
+
+        int sent = 0;
+        while (reader != null && reader.next()) {
+            final byte[] buffer = reader.buffer();
+            final int offset = reader.payloadOffset();
+            final int length = reader.payloadLength();
+
+            Map<String, Object> record = event(tagId, "record", sent, totalBytes);
+            record.put("index", reader.index());
+            record.put("tnf", NdefDecoder.tnfName(reader.tnf()));
+            record.put("type", new String(buffer, reader.typeOffset(), reader.typeLength(), StandardCharsets.UTF_8));
+            record.put("record_id", new String(buffer, reader.idOffset(), reader.idLength(), StandardCharsets.UTF_8));
+            record.put("payload_length", length);
+            sink.event(record);
+
+            for (int chunkOffset = 0; chunkOffset < length; chunkOffset += chunkSize) {
+                int end = Math.min(length, chunkOffset + chunkSize);
+                sent += end - chunkOffset;
+                Map<String, Object> chunk = event(tagId, "chunk", sent, totalBytes);
+                chunk.put("index", reader.index());
+                chunk.put("offset", chunkOffset);
+                chunk.put("data", Arrays.copyOfRange(buffer, offset + chunkOffset, offset + end));
+                sink.event(chunk);
+            }
+        }
+
+        sink.event(event(tagId, "end", sent, totalBytes));
+    }
+
+    private static Map<String, Object> event(String tagId, String kind, int sent, int totalBytes) {
+        Map<String, Object> event = new HashMap<>(12);
+        event.put("message_type", MESSAGE_TYPE);
+        event.put("event", kind);
+        event.put("id", tagId);
+        event.put("bytes_sent", sent);
+        event.put("total_bytes", totalBytes);
+        return event;
+    }
+}
@@ -0,0 +1,188 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * NdefTemplate is a serialized NDEF message with fixed-width substitution
+ * slots, used to write the same message to many tags.
+ * <p>
+ * Slots are written in record payloads as {@code {{serial}}} or
+ * {@code {{tag_id}}}, optionally with a width such as {@code {{serial:8}}}.
+ * The serial slot is replaced by a zero padded decimal counter and the tag id
+ * slot by the tag's id as zero padded uppercase hex. Because slots have a
+ * fixed width, rendering a tag's message is a copy of the template bytes
+ * with the slots patched in; the message is never re-encoded.
+ * <p>
+ * Compiling a template is done in two steps. {@link #prepare} replaces slot
+ * markers in a payload with placeholder characters before the message is
+ * encoded, and {@link #compile} then locates the placeholders in the
+ * encoded message.
+ */
+public final class NdefTemplate {
+    public static final int SLOT_SERIAL = 0;
+    public static final int SLOT_TAG_ID = 1;
+
+    private static final int DEFAULT_SERIAL_WIDTH = 6;
+    private static final int DEFAULT_TAG_ID_WIDTH = 14; // 7 byte UID
+    private static final int MAX_SLOTS = 31;
+    private static final Pattern SLOT_PATTERN = Pattern.compile("\\{\\{(serial|tag_id)(?::(\\d{1,2}))?\\}\\}");
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Slot is a substitution slot in a template.
+     */
+    public static final class Slot {
+        final int kind;
+        final int width;
+        // Placeholder byte, unique per slot
+        final byte placeholder;
+        int offset = -1;
+
+        Slot(int kind, int width, byte placeholder) {
+            this.kind = kind;
+            this.width = width;
+            this.placeholder = placeholder;
+        }
+    }
+
+    private final byte[] template;
+    private final Slot[] slots;
+
+    private NdefTemplate(byte[] template, Slot[] slots) {
+        this.template = template;
+        this.slots = slots;
+    }
+
+    /**
+     * Replaces the slot markers in {@code payload} with placeholders and adds
+     * the slots to {@code slots}. Placeholders are ASCII control characters,
+     * which encode to a single byte in UTF-8.
+     */
+    public static String prepare(String payload, List<Slot> slots) {
+        Matcher matcher = SLOT_PATTERN.matcher(payload);
+        if (!matcher.find()) {
+            return payload;
+        }
+        StringBuilder builder = new StringBuilder(payload.length());
+        int last = 0;
+        do {
+            if (slots.size() >= MAX_SLOTS) {
+                throw new IllegalArgumentException("too many template slots");
+            }
+            int kind = "serial".equals(matcher.group(1)) ? SLOT_SERIAL : SLOT_TAG_ID;
+            int width = matcher.group(2) != null
+                    ? Integer.parseInt(matcher.group(2))
+                    : (kind == SLOT_SERIAL ? DEFAULT_SERIAL_WIDTH : DEFAULT_TAG_ID_WIDTH);
+            if (width == 0) {
+                throw new IllegalArgumentException("template slots must be at least 1 character wide");
+            }
+            Slot slot = new Slot(kind, width, (byte) (slots.size() + 1));
+            slots.add(slot);
+
+            builder.append(payload, last, matcher.start());
+            for (int i = 0; i < width; i++) {
+                builder.append((char) slot.placeholder);
+            }
+            last = matcher.end();
+        } while (matcher.find());
+        builder.append(payload, last, payload.length());
+        return builder.toString();
+    }
+
+    /**
+     * Compiles a serialized message whose payloads were passed through
+     * {@link #prepare}.
+     */
+    public static NdefTemplate compile(byte[] message, List<Slot> slots) throws NdefFormatException {
+        NdefReader reader = new NdefReader(message);
+        while (reader.next()) {
+            int start = reader.payloadOffset();
+            int end = start + reader.payloadLength();
+            for (Slot slot : slots) {
+                if (slot.offset == -1) {
+                    slot.offset = find(message, start, end, slot);
+                }
+            }
+        }
+        for (Slot slot : slots) {
+            if (slot.offset == -1) {
+                throw new NdefFormatException("template slot could not be located in the encoded message");
+            }
+        }
+        return new NdefTemplate(message, slots.toArray(new Slot[0]));
+    }
+
+    private static int find(byte[] message, int start, int end, Slot slot) {
+        int run = 0;
+        for (int i = start; i < end; i++) {
+            run = message[i] == slot.placeholder ? run + 1 : 0;
+            // Use the end of the run, as the byte before a slot may be a URI
+            // prefix or text status byte that happens to equal the placeholder
+            boolean runEnds = i + 1 == end || message[i + 1] != slot.placeholder;
+            if (run >= slot.width && runEnds) {
+                return i - slot.width + 1;
+            }
+        }
+        return -1;
+    }
+
+    public boolean hasSlots() {
+        return slots.length > 0;
+    }
+
+    public int length() {
+        return template.length;
+    }
+
+    /**
+     * Renders the message for a single tag.
+     *
+     * @throws IllegalArgumentException if a value does not fit its slot
+     */
+    public byte[] render(long serial, byte[] tagId) {
+        if (slots.length == 0) {
+            return template;
+        }
+        byte[] message = Arrays.copyOf(template, template.length);
+        for (Slot slot : slots) {
+            if (slot.kind == SLOT_SERIAL) {
+                putDecimal(message, slot, serial);
+            } else {
+                putHex(message, slot, tagId);
+            }
+        }
+        return message;
+    }
+
+    private static void putDecimal(byte[] message, Slot slot, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("serial must not be negative");
+        }
+        for (int i = slot.offset + slot.width - 1; i >= slot.offset; i--) {
+            message[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        if (value != 0) {
+            throw new IllegalArgumentException("serial does not fit in " + slot.width + " digits");
+        }
+    }
+
+    private static void putHex(byte[] message, Slot slot, byte[] tagId) {
+        int digits = tagId == null ? 0 : tagId.length * 2;
+        if (digits > slot.width) {
+            throw new IllegalArgumentException("tag id does not fit in " + slot.width + " digits");
+        }
+        int p = slot.offset;
+        for (int i = digits; i < slot.width; i++) {
+            message[p++] = '0';
+        }
+        for (int i = 0; i < digits / 2; i++) {
+            message[p++] = HEX_DIGITS[(tagId[i] >> 4) & 0x0F];
+            message[p++] = HEX_DIGITS[tagId[i] & 0x0F];
+        }
+    }
+}
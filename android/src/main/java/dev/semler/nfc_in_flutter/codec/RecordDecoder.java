@@ -0,0 +1,21 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import java.util.Map;
+
+/**
+ * RecordDecoder decodes the payload of one kind of NDEF record.
+ *
+ * @see RecordDecoderRegistry
+ */
+public interface RecordDecoder {
+    /**
+     * Adds the decoded fields of the record the reader is positioned at to
+     * {@code record}, which already holds the record's raw payload, id, type
+     * and tnf.
+     *
+     * @param registry the registry the decoder was found in, for decoding
+     *                 nested messages
+     * @param depth    how deeply the record is nested in other records
+     */
+    void decode(NdefReader reader, Map<String, Object> record, RecordDecoderRegistry registry, int depth) throws NdefFormatException;
+}
@@ -0,0 +1,191 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RecordDecoderRegistry picks the decoder of each NDEF record by its TNF and
+ * type. Records no registered decoder matches are passed through with only
+ * their raw payload, so record kinds an app doesn't use are never decoded to
+ * strings.
+ * <p>
+ * Registries are built from the names of the built-in decoders an app asks
+ * for when it starts reading; see {@link #withBuiltIns}. A registry is
+ * immutable once built and can be shared between threads.
+ */
+public final class RecordDecoderRegistry {
+    public static final String TEXT = "text";
+    public static final String URI = "uri";
+    public static final String SMART_POSTER = "smart_poster";
+    public static final String VENDOR_MIME = "vendor_mime";
+    public static final String EXTERNAL_TYPE = "external_type";
+    public static final String RAW = "raw";
+
+    // Smart posters nest messages; deeper nesting than this is malformed or
+    // malicious
+    private static final int MAX_DEPTH = 4;
+
+    private static final byte[] RTD_TEXT = {NdefDecoder.RTD_TEXT};
+    private static final byte[] RTD_URI = {NdefDecoder.RTD_URI};
+    private static final byte[] RTD_SMART_POSTER = {0x53, 0x70}; // "Sp"
+    private static final byte[] VENDOR_MIME_PREFIX = "application/vnd.".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ANY_TYPE = {};
+
+    private static final RecordDecoder TEXT_DECODER = new RecordDecoder() {
+        @Override
+        public void decode(NdefReader reader, Map<String, Object> record, RecordDecoderRegistry registry, int depth) throws NdefFormatException {
+            if (reader.payloadLength() > 0) {
+                NdefDecoder.putText(reader, record);
+            }
+        }
+    };
+
+    private static final RecordDecoder URI_DECODER = new RecordDecoder() {
+        @Override
+        public void decode(NdefReader reader, Map<String, Object> record, RecordDecoderRegistry registry, int depth) {
+            if (reader.payloadLength() > 0) {
+                NdefDecoder.putUri(reader, record);
+            }
+        }
+    };
+
+    /**
+     * Decodes the message in a smart poster's payload into "records", with
+     * the same registry.
+     */
+    private static final RecordDecoder SMART_POSTER_DECODER = new RecordDecoder() {
+        @Override
+        public void decode(NdefReader reader, Map<String, Object> record, RecordDecoderRegistry registry, int depth) throws NdefFormatException {
+            if (depth >= MAX_DEPTH) {
+                throw new NdefFormatException("smart posters are nested too deeply");
+            }
+            record.put("records", registry.decodeRecords(reader.buffer(), reader.payloadOffset(), reader.payloadLength(), depth + 1));
+        }
+    };
+
+    /**
+     * Decodes the payload of vendor MIME records as UTF-8 if the MIME type
+     * says it is text, e.g. application/vnd.example+json. Binary payloads
+     * are left raw.
+     */
+    private static final RecordDecoder VENDOR_MIME_DECODER = new RecordDecoder() {
+        @Override
+        public void decode(NdefReader reader, Map<String, Object> record, RecordDecoderRegistry registry, int depth) {
+            String type = (String) record.get("type");
+            if (type.endsWith("+json") || type.endsWith("+xml") || type.endsWith("+text")) {
+                NdefDecoder.putUtf8(reader, record);
+            }
+        }
+    };
+
+    /**
+     * Decodes the payload of external type records as UTF-8, as most carry
+     * short identifiers such as Android application records.
+     */
+    private static final RecordDecoder EXTERNAL_TYPE_DECODER = new RecordDecoder() {
+        @Override
+        public void decode(NdefReader reader, Map<String, Object> record, RecordDecoderRegistry registry, int depth) {
+            NdefDecoder.putUtf8(reader, record);
+        }
+    };
+
+    private static final RecordDecoder RAW_DECODER = new RecordDecoder() {
+        @Override
+        public void decode(NdefReader reader, Map<String, Object> record, RecordDecoderRegistry registry, int depth) {
+        }
+    };
+
+    private static final class Entry {
+        final int tnf;
+        final byte[] type;
+        final boolean prefix;
+        final RecordDecoder decoder;
+
+        Entry(int tnf, byte[] type, boolean prefix, RecordDecoder decoder) {
+            this.tnf = tnf;
+            this.type = type;
+            this.prefix = prefix;
+            this.decoder = decoder;
+        }
+
+        boolean matches(NdefReader reader) {
+            return reader.tnf() == tnf && (prefix ? reader.typeStartsWith(type) : reader.typeIs(type));
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private RecordDecoderRegistry() {
+    }
+
+    /**
+     * Builds a registry of the named built-in decoders.
+     *
+     * @throws IllegalArgumentException if a name is unknown
+     */
+    public static RecordDecoderRegistry withBuiltIns(Collection<?> names) {
+        RecordDecoderRegistry registry = new RecordDecoderRegistry();
+        for (Object name : names) {
+            if (!(name instanceof String)) {
+                throw new IllegalArgumentException("decoder names must be strings");
+            }
+            switch ((String) name) {
+                case TEXT:
+                    registry.register(NdefDecoder.TNF_WELL_KNOWN, RTD_TEXT, false, TEXT_DECODER);
+                    break;
+                case URI:
+                    registry.register(NdefDecoder.TNF_WELL_KNOWN, RTD_URI, false, URI_DECODER);
+                    break;
+                case SMART_POSTER:
+                    registry.register(NdefDecoder.TNF_WELL_KNOWN, RTD_SMART_POSTER, false, SMART_POSTER_DECODER);
+                    break;
+                case VENDOR_MIME:
+                    registry.register(NdefDecoder.TNF_MIME_MEDIA, VENDOR_MIME_PREFIX, true, VENDOR_MIME_DECODER);
+                    break;
+                case EXTERNAL_TYPE:
+                    registry.register(NdefDecoder.TNF_EXTERNAL_TYPE, ANY_TYPE, true, EXTERNAL_TYPE_DECODER);
+                    break;
+                case RAW:
+                    // Unmatched records are always passed through raw
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown record decoder: " + name);
+            }
+        }
+        return registry;
+    }
+
+    private void register(int tnf, byte[] type, boolean prefix, RecordDecoder decoder) {
+        entries.add(new Entry(tnf, type, prefix, decoder));
+    }
+
+    private RecordDecoder find(NdefReader reader) {
+        for (Entry entry : entries) {
+            if (entry.matches(reader)) {
+                return entry.decoder;
+            }
+        }
+        return RAW_DECODER;
+    }
+
+    /**
+     * Decodes every record of a serialized NDEF message.
+     */
+    public List<Map<String, Object>> decodeRecords(byte[] message) throws NdefFormatException {
+        return decodeRecords(message, 0, message.length, 0);
+    }
+
+    List<Map<String, Object>> decodeRecords(byte[] buffer, int offset, int length, int depth) throws NdefFormatException {
+        NdefReader reader = new NdefReader().reset(buffer, offset, length);
+        List<Map<String, Object>> records = new ArrayList<>();
+        while (reader.next()) {
+            Map<String, Object> record = NdefDecoder.decodeRecordLazily(reader);
+            find(reader).decode(reader, record, this, depth);
+            records.add(record);
+        }
+        return records;
+    }
+}
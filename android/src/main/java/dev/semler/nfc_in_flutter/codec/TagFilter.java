@@ -0,0 +1,128 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * TagFilter is a predicate on a tag's id and raw NDEF message, evaluated
+ * before the message is decoded.
+ * <p>
+ * A tag matches if its id matches the id prefix under the id mask, and at
+ * least one of its records matches every record criterion: TNF, type, MIME
+ * type and payload size. A filter without record criteria matches any
+ * message, including empty ones. Types may end in {@code *} to match a
+ * prefix, e.g. {@code image/*}.
+ */
+public final class TagFilter {
+    private final int tnf; // -1 for any
+    private final byte[] type;
+    private final boolean typeIsPrefix;
+    private final byte[] idPrefix;
+    private final byte[] idMask;
+    private final int minPayloadSize;
+    private final int maxPayloadSize;
+
+    private TagFilter(int tnf, String type, byte[] idPrefix, byte[] idMask, int minPayloadSize, int maxPayloadSize) {
+        this.tnf = tnf;
+        this.typeIsPrefix = type != null && type.endsWith("*");
+        this.type = type == null ? null
+                : (typeIsPrefix ? type.substring(0, type.length() - 1) : type).getBytes(StandardCharsets.UTF_8);
+        this.idPrefix = idPrefix;
+        this.idMask = idMask;
+        this.minPayloadSize = minPayloadSize;
+        this.maxPayloadSize = maxPayloadSize;
+    }
+
+    /**
+     * Creates a filter from its method channel map. A MIME type is a type
+     * with the mime_media TNF.
+     *
+     * @throws IllegalArgumentException if the map is invalid
+     */
+    public static TagFilter fromMap(Map<?, ?> map) {
+        String tnfName = (String) map.get("tnf");
+        String type = (String) map.get("type");
+        String mimeType = (String) map.get("mime_type");
+        int tnf = tnfName != null ? tnfValue(tnfName) : -1;
+        if (mimeType != null) {
+            if (type != null || (tnf != -1 && tnf != NdefDecoder.TNF_MIME_MEDIA)) {
+                throw new IllegalArgumentException("a MIME type filter can't have another type or TNF");
+            }
+            tnf = NdefDecoder.TNF_MIME_MEDIA;
+            type = mimeType;
+        }
+
+        String idPrefix = (String) map.get("id_prefix");
+        String idMask = (String) map.get("id_mask");
+        byte[] prefix = idPrefix != null ? Hex.decode(idPrefix) : null;
+        byte[] mask = idMask != null ? Hex.decode(idMask) : null;
+        if (mask != null && (prefix == null || mask.length != prefix.length)) {
+            throw new IllegalArgumentException("an id mask must be as long as the id prefix");
+        }
+
+        Number minPayloadSize = (Number) map.get("min_payload_size");
+        Number maxPayloadSize = (Number) map.get("max_payload_size");
+        return new TagFilter(tnf, type, prefix, mask,
+                minPayloadSize != null ? minPayloadSize.intValue() : 0,
+                maxPayloadSize != null ? maxPayloadSize.intValue() : Integer.MAX_VALUE);
+    }
+
+    private static int tnfValue(String name) {
+        for (int tnf = 0; tnf < 7; tnf++) {
+            if (NdefDecoder.tnfName(tnf).equals(name)) {
+                return tnf;
+            }
+        }
+        throw new IllegalArgumentException("unknown tnf: " + name);
+    }
+
+    private boolean hasRecordCriteria() {
+        return tnf != -1 || type != null || minPayloadSize > 0 || maxPayloadSize != Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param message the serialized message, or null if the tag is empty
+     */
+    public boolean matches(byte[] tagId, byte[] message) throws NdefFormatException {
+        if (idPrefix != null && !idMatches(tagId)) {
+            return false;
+        }
+        if (!hasRecordCriteria()) {
+            return true;
+        }
+        if (message == null || message.length == 0) {
+            return false;
+        }
+        NdefReader reader = new NdefReader(message);
+        while (reader.next()) {
+            if (recordMatches(reader)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean idMatches(byte[] tagId) {
+        if (tagId == null || tagId.length < idPrefix.length) {
+            return false;
+        }
+        for (int i = 0; i < idPrefix.length; i++) {
+            int mask = idMask != null ? idMask[i] : 0xFF;
+            if ((tagId[i] & mask) != (idPrefix[i] & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean recordMatches(NdefReader reader) {
+        if (tnf != -1 && reader.tnf() != tnf) {
+            return false;
+        }
+        if (type != null && !(typeIsPrefix ? reader.typeStartsWith(type) : reader.typeIs(type))) {
+            return false;
+        }
+        int payloadLength = reader.payloadLength();
+        return payloadLength >= minPayloadSize && payloadLength <= maxPayloadSize;
+    }
+}
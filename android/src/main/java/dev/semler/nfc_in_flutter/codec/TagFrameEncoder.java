@@ -0,0 +1,127 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * TagFrameEncoder serializes a discovered tag into a single binary frame,
+ * which is sent over the tag event channel instead of a map when the
+ * "frame" wire format is selected. The Dart side decodes the frame lazily.
+ * <p>
+ * All integers are big endian. A frame is laid out as follows:
+ * <pre>
+ * u32  frame length, not including these 4 bytes
+ * u8   version
+ * u8   flags (bit 0: writable)
+ * u8   tag id length, followed by the tag id
+ * u8   tag type length, followed by the UTF-8 tag type
+ * u16  record count
+ *      record table, {@link #RECORD_ENTRY_SIZE} bytes per record:
+ *        u8 tnf, u8 type length, u8 id length, u8 reserved,
+ *        u32 type offset, u32 id offset, u32 payload offset, u32 payload length
+ * u32  payload region length, followed by the payload region
+ * </pre>
+ * Offsets in the record table are relative to the start of the payload
+ * region, which holds the serialized NDEF message as read from the tag.
+ */
+public final class TagFrameEncoder {
+    public static final int VERSION = 1;
+    public static final int FLAG_WRITABLE = 0x01;
+    public static final int RECORD_ENTRY_SIZE = 20;
+
+    private TagFrameEncoder() {
+    }
+
+    /**
+     * Encodes an empty tag with a single empty record.
+     */
+    public static byte[] encodeEmpty(byte[] tagId, String tagType, boolean writable) {
+        try {
+            return encode(tagId, tagType, writable, null);
+        } catch (NdefFormatException e) {
+            // Only thrown when parsing a message
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Encodes a tag event.
+     *
+     * @param tagId   the tag's id, may be null
+     * @param tagType the tag's NDEF type, may be null
+     * @param message the serialized NDEF message, or null if the tag is empty.
+     *                Empty tags are encoded with a single empty record.
+     */
+    public static byte[] encode(byte[] tagId, String tagType, boolean writable, byte[] message) throws NdefFormatException {
+        if (tagId == null) {
+            tagId = new byte[0];
+        }
+        byte[] typeBytes = tagType == null ? new byte[0] : tagType.getBytes(StandardCharsets.UTF_8);
+        if (tagId.length > 0xFF || typeBytes.length > 0xFF) {
+            throw new IllegalArgumentException("tag id or type is too long");
+        }
+
+        NdefReader reader = null;
+        int recordCount = 1;
+        int regionLength = 0;
+        if (message != null && message.length > 0) {
+            reader = new NdefReader(message);
+            recordCount = 0;
+            while (reader.next()) {
+                recordCount++;
+            }
+            if (recordCount > 0xFFFF) {
+                throw new NdefFormatException("too many records");
+            }
+            reader.reset(message);
+            regionLength = message.length;
+        }
+
+        int frameLength = 1 + 1
+                + 1 + tagId.length
+                + 1 + typeBytes.length
+                + 2 + recordCount * RECORD_ENTRY_SIZE
+                + 4 + regionLength;
+        byte[] frame = new byte[4 + frameLength];
+        int p = putInt(frame, 0, frameLength);
+        frame[p++] = VERSION;
+        frame[p++] = (byte) (writable ? FLAG_WRITABLE : 0);
+        frame[p++] = (byte) tagId.length;
+        System.arraycopy(tagId, 0, frame, p, tagId.length);
+        p += tagId.length;
+        frame[p++] = (byte) typeBytes.length;
+        System.arraycopy(typeBytes, 0, frame, p, typeBytes.length);
+        p += typeBytes.length;
+        frame[p++] = (byte) (recordCount >> 8);
+        frame[p++] = (byte) recordCount;
+
+        if (reader == null) {
+            // A single empty record, all zeroes
+            p += RECORD_ENTRY_SIZE;
+        } else {
+            while (reader.next()) {
+                frame[p++] = (byte) reader.tnf();
+                frame[p++] = (byte) reader.typeLength();
+                frame[p++] = (byte) reader.idLength();
+                frame[p++] = 0;
+                p = putInt(frame, p, reader.typeOffset());
+                p = putInt(frame, p, reader.idOffset());
+                p = putInt(frame, p, reader.payloadOffset());
+                p = putInt(frame, p, reader.payloadLength());
+            }
+        }
+
+        p = putInt(frame, p, regionLength);
+        if (regionLength > 0) {
+            System.arraycopy(message, 0, frame, p, regionLength);
+        }
+        return frame;
+    }
+
+    private static int putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >> 24);
+        buffer[offset + 1] = (byte) (value >> 16);
+        buffer[offset + 2] = (byte) (value >> 8);
+        buffer[offset + 3] = (byte) value;
+        return offset + 4;
+    }
+}
@@ -0,0 +1,52 @@
+package dev.semler.nfc_in_flutter.journal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import dev.semler.nfc_in_flutter.codec.Hex;
+
+/**
+ * JournalEntry is a record read back from a {@link ScanJournal}.
+ */
+public final class JournalEntry {
+    public final long timestamp;
+    public final int kind;
+    public final boolean writable;
+    public final byte[] tagId;
+    // The tag type of reads, or the error code of errors
+    public final String type;
+    // The raw NDEF message of reads, or the UTF-8 error message of errors
+    public final byte[] data;
+
+    JournalEntry(long timestamp, int kind, boolean writable, byte[] tagId, String type, byte[] data) {
+        this.timestamp = timestamp;
+        this.kind = kind;
+        this.writable = writable;
+        this.tagId = tagId;
+        this.type = type;
+        this.data = data;
+    }
+
+    public boolean isError() {
+        return kind == ScanJournal.KIND_ERROR;
+    }
+
+    /**
+     * @return the entry as sent over the method channel
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>(8);
+        map.put("timestamp", timestamp);
+        map.put("id", Hex.encode(tagId));
+        if (isError()) {
+            map.put("error", type);
+            map.put("message", new String(data, StandardCharsets.UTF_8));
+        } else {
+            map.put("type", type);
+            map.put("writable", writable);
+            map.put("ndef", data);
+        }
+        return map;
+    }
+}
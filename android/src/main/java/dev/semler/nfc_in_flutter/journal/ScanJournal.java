@@ -0,0 +1,341 @@
+package dev.semler.nfc_in_flutter.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ScanJournal is an append-only log of tag scans and scan errors, kept in
+ * memory-mapped segment files.
+ * <p>
+ * Appending a record is a copy into the mapped segment, so it costs
+ * microseconds and the record survives the app being killed, as the kernel
+ * writes mapped pages back on its own. When a segment is full the next one
+ * is created, and the oldest segments are deleted to keep at most
+ * maxSegments.
+ * <p>
+ * Segments start with an 8 byte header, a magic number followed by a
+ * reserved word, and then hold records laid out as:
+ * <pre>
+ * u32 length    length of the rest of the record, written last
+ * u64 timestamp milliseconds since the epoch
+ * u8  kind      KIND_READ or KIND_ERROR
+ * u8  flags     bit 0: the tag is writable
+ * u8  idLength, tag id
+ * u8  typeLength, tag type (reads) or error code (errors), UTF-8
+ * u32 dataLength, raw NDEF message (reads) or error message (errors)
+ * </pre>
+ * Unused space is zero, so a zero length marks the end of a segment's
+ * records. As the length is written after the rest of the record, a record
+ * interrupted by the process dying is never read back.
+ */
+public final class ScanJournal implements Closeable {
+    public static final int KIND_READ = 0;
+    public static final int KIND_ERROR = 1;
+
+    static final int FLAG_WRITABLE = 0x01;
+    static final int MAGIC = 0x4E464A31; // "NFJ1"
+    static final int SEGMENT_HEADER_SIZE = 8;
+    // Everything but the variable length fields
+    static final int RECORD_OVERHEAD = 4 + 8 + 1 + 1 + 1 + 1 + 4;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".jnl";
+
+    private static final class Segment {
+        final long sequence;
+        final File file;
+        final MappedByteBuffer buffer;
+
+        Segment(long sequence, File file, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    // Oldest first. The last segment is the one being appended to.
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    // Write position in the last segment
+    private int position;
+    private boolean closed = false;
+
+    private ScanJournal(File directory, int segmentSize, int maxSegments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Opens the journal in directory, creating it if needed. Records left by
+     * a previous run are kept.
+     */
+    public static ScanJournal open(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < 4096) {
+            throw new IllegalArgumentException("segment size must be at least 4096 bytes");
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("there must be at least one segment");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create journal directory " + directory);
+        }
+        ScanJournal journal = new ScanJournal(directory, segmentSize, maxSegments);
+        journal.load();
+        return journal;
+    }
+
+    private void load() throws IOException {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        long[] sequences = new long[names != null ? names.length : 0];
+        int count = 0;
+        for (int i = 0; i < sequences.length; i++) {
+            try {
+                sequences[count] = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(), names[i].length() - SEGMENT_SUFFIX.length()));
+                count++;
+            } catch (NumberFormatException e) {
+                // Not a segment
+            }
+        }
+        sequences = Arrays.copyOf(sequences, count);
+        Arrays.sort(sequences);
+        for (long sequence : sequences) {
+            File file = segmentFile(sequence);
+            MappedByteBuffer buffer = map(file, file.length());
+            if (buffer.capacity() < SEGMENT_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                // Corrupt or not a journal segment
+                file.delete();
+                continue;
+            }
+            segments.add(new Segment(sequence, file, buffer));
+        }
+        if (segments.isEmpty()) {
+            addSegment(0, segmentSize);
+        } else {
+            position = end(segments.getLast().buffer);
+        }
+        trim();
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(directory, String.format(Locale.ROOT, "%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            // The mapping stays valid after the channel is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void addSegment(long sequence, int size) throws IOException {
+        File file = segmentFile(sequence);
+        MappedByteBuffer buffer = map(file, size);
+        buffer.putInt(0, MAGIC);
+        segments.add(new Segment(sequence, file, buffer));
+        position = SEGMENT_HEADER_SIZE;
+    }
+
+    private void trim() {
+        while (segments.size() > maxSegments) {
+            segments.removeFirst().file.delete();
+        }
+    }
+
+    /**
+     * @return the position after the last complete record of a segment
+     */
+    private static int end(ByteBuffer buffer) {
+        int position = SEGMENT_HEADER_SIZE;
+        while (position + 4 <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.capacity() - position - 4) {
+                break;
+            }
+            position += 4 + length;
+        }
+        return position;
+    }
+
+    public synchronized void appendRead(long timestamp, byte[] tagId, String tagType, boolean writable, byte[] message) throws IOException {
+        append(timestamp, KIND_READ, writable ? FLAG_WRITABLE : 0, tagId, tagType, message);
+    }
+
+    public synchronized void appendError(long timestamp, byte[] tagId, String code, String message) throws IOException {
+        append(timestamp, KIND_ERROR, 0, tagId, code, message != null ? message.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private void append(long timestamp, int kind, int flags, byte[] tagId, String type, byte[] data) throws IOException {
+        if (closed) {
+            throw new IOException("the journal is closed");
+        }
+        byte[] typeBytes = type != null ? type.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int idLength = tagId != null ? Math.min(tagId.length, 0xFF) : 0;
+        int typeLength = Math.min(typeBytes.length, 0xFF);
+        int dataLength = data != null ? data.length : 0;
+        int size = RECORD_OVERHEAD + idLength + typeLength + dataLength;
+
+        ByteBuffer buffer = segments.getLast().buffer;
+        if (position + size > buffer.capacity()) {
+            // Records never span segments, so a record larger than a
+            // segment gets a segment of its own
+            addSegment(segments.getLast().sequence + 1, Math.max(segmentSize, SEGMENT_HEADER_SIZE + size));
+            trim();
+            buffer = segments.getLast().buffer;
+        }
+
+        int p = position + 4;
+        buffer.putLong(p, timestamp);
+        p += 8;
+        buffer.put(p++, (byte) kind);
+        buffer.put(p++, (byte) flags);
+        buffer.put(p++, (byte) idLength);
+        for (int i = 0; i < idLength; i++) {
+            buffer.put(p++, tagId[i]);
+        }
+        buffer.put(p++, (byte) typeLength);
+        for (int i = 0; i < typeLength; i++) {
+            buffer.put(p++, typeBytes[i]);
+        }
+        buffer.putInt(p, dataLength);
+        p += 4;
+        if (dataLength > 0) {
+            ByteBuffer target = buffer.duplicate();
+            target.position(p);
+            target.put(data);
+        }
+        // Commit the record
+        buffer.putInt(position, size - 4);
+        position += size;
+    }
+
+    /**
+     * Returns the records with a timestamp in [fromMillis, toMillis], oldest
+     * first. Records are copied out of a snapshot of the journal, so appends
+     * aren't blocked while the journal is searched.
+     *
+     * @param tagId only return records of this tag, or null for all tags
+     * @param limit the maximum number of records returned
+     */
+    public List<JournalEntry> query(long fromMillis, long toMillis, byte[] tagId, int limit) {
+        List<ByteBuffer> snapshot = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return new ArrayList<>();
+            }
+            Iterator<Segment> iterator = segments.iterator();
+            while (iterator.hasNext()) {
+                Segment segment = iterator.next();
+                snapshot.add(segment.buffer.duplicate());
+                ends.add(iterator.hasNext() ? segment.buffer.capacity() : position);
+            }
+        }
+
+        List<JournalEntry> entries = new ArrayList<>();
+        for (int s = 0; s < snapshot.size() && entries.size() < limit; s++) {
+            ByteBuffer buffer = snapshot.get(s);
+            int end = ends.get(s);
+            int position = SEGMENT_HEADER_SIZE;
+            while (position + 4 <= end && entries.size() < limit) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || length > end - position - 4) {
+                    break;
+                }
+                JournalEntry entry = read(buffer, position + 4, fromMillis, toMillis, tagId);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+                position += 4 + length;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the record at p, or returns null if it doesn't match the query.
+     */
+    private static JournalEntry read(ByteBuffer buffer, int p, long fromMillis, long toMillis, byte[] tagId) {
+        long timestamp = buffer.getLong(p);
+        if (timestamp < fromMillis || timestamp > toMillis) {
+            return null;
+        }
+        p += 8;
+        int kind = buffer.get(p++);
+        int flags = buffer.get(p++);
+        int idLength = buffer.get(p++) & 0xFF;
+        if (tagId != null && !idEquals(buffer, p, idLength, tagId)) {
+            return null;
+        }
+        byte[] id = new byte[idLength];
+        for (int i = 0; i < idLength; i++) {
+            id[i] = buffer.get(p++);
+        }
+        int typeLength = buffer.get(p++) & 0xFF;
+        byte[] type = new byte[typeLength];
+        for (int i = 0; i < typeLength; i++) {
+            type[i] = buffer.get(p++);
+        }
+        int dataLength = buffer.getInt(p);
+        p += 4;
+        byte[] data = new byte[dataLength];
+        ByteBuffer source = buffer.duplicate();
+        source.position(p);
+        source.get(data);
+        return new JournalEntry(timestamp, kind, (flags & FLAG_WRITABLE) != 0, id,
+                new String(type, StandardCharsets.UTF_8), data);
+    }
+
+    private static boolean idEquals(ByteBuffer buffer, int p, int length, byte[] tagId) {
+        if (length != tagId.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(p + i) != tagId[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the journal. Records already appended stay on disk.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        segments.clear();
+    }
+}
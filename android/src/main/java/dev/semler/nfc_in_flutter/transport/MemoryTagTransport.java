@@ -0,0 +1,149 @@
+package dev.semler.nfc_in_flutter.transport;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * MemoryTagTransport is an in-memory Type 2 tag. It answers READ and, unless
+ * disabled, FAST_READ commands from a page image and can simulate the RF
+ * latency of every command, so read paths can be tested and benchmarked
+ * without hardware.
+ * <p>
+ * Like a real tag, it NAKs commands it doesn't support and then ignores
+ * every command until it is connected again.
+ */
+public class MemoryTagTransport implements TagTransport {
+    private final byte[] memory;
+    private final int maxTransceiveLength;
+    private final boolean fastReadSupported;
+    private long latencyNanos = 0;
+    private boolean connected = false;
+    // Set after a NAK until the tag is connected again
+    private boolean idle = false;
+    private int transceiveCount = 0;
+
+    public MemoryTagTransport(byte[] memory, int maxTransceiveLength, boolean fastReadSupported) {
+        this.memory = memory;
+        this.maxTransceiveLength = maxTransceiveLength;
+        this.fastReadSupported = fastReadSupported;
+    }
+
+    /**
+     * Creates a formatted Type 2 tag holding {@code message}.
+     *
+     * @param dataSize the size of the tag's data area in bytes, e.g. 496 for
+     *                 a NTAG215. Must be a multiple of 8.
+     */
+    public static MemoryTagTransport type2(byte[] message, int dataSize) {
+        return type2(message, dataSize, true);
+    }
+
+    /**
+     * Creates a formatted Type 2 tag holding {@code message}, which only
+     * answers READ commands unless {@code fastReadSupported} is true.
+     */
+    public static MemoryTagTransport type2(byte[] message, int dataSize, boolean fastReadSupported) {
+        int tlvHeader = message.length < 0xFF ? 2 : 4;
+        if (tlvHeader + message.length + 1 > dataSize) {
+            throw new IllegalArgumentException("message does not fit in the data area");
+        }
+        byte[] memory = new byte[(Type2TagReader.DATA_PAGE * Type2TagReader.PAGE_SIZE) + dataSize];
+        int cc = Type2TagReader.CC_PAGE * Type2TagReader.PAGE_SIZE;
+        memory[cc] = (byte) Type2TagReader.CC_MAGIC;
+        memory[cc + 1] = 0x10;
+        memory[cc + 2] = (byte) (dataSize / 8);
+        memory[cc + 3] = 0x00;
+
+        int p = Type2TagReader.DATA_PAGE * Type2TagReader.PAGE_SIZE;
+        memory[p++] = 0x03;
+        if (tlvHeader == 2) {
+            memory[p++] = (byte) message.length;
+        } else {
+            memory[p++] = (byte) 0xFF;
+            memory[p++] = (byte) (message.length >> 8);
+            memory[p++] = (byte) message.length;
+        }
+        System.arraycopy(message, 0, memory, p, message.length);
+        memory[p + message.length] = (byte) 0xFE;
+        return new MemoryTagTransport(memory, 253, fastReadSupported);
+    }
+
+    /**
+     * Sets the simulated latency of every command.
+     */
+    public MemoryTagTransport setLatencyNanos(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+        return this;
+    }
+
+    public int transceiveCount() {
+        return transceiveCount;
+    }
+
+    @Override
+    public void connect() {
+        connected = true;
+        idle = false;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        if (!connected) {
+            throw new IOException("not connected");
+        }
+        transceiveCount++;
+        simulateLatency();
+        if (idle) {
+            throw new IOException("Tag was lost.");
+        }
+        int pageSize = Type2TagReader.PAGE_SIZE;
+        int pages = memory.length / pageSize;
+        switch (command[0]) {
+            case Type2TagReader.CMD_READ: {
+                // READ returns 4 pages, rolling over at the end of memory
+                int page = command[1] & 0xFF;
+                byte[] response = new byte[4 * pageSize];
+                for (int i = 0; i < response.length; i++) {
+                    response[i] = memory[(page * pageSize + i) % memory.length];
+                }
+                return response;
+            }
+            case Type2TagReader.CMD_FAST_READ: {
+                int start = command[1] & 0xFF;
+                int end = command[2] & 0xFF;
+                if (!fastReadSupported || end < start || end >= pages
+                        || (end - start + 1) * pageSize > maxTransceiveLength) {
+                    throw nak();
+                }
+                return Arrays.copyOfRange(memory, start * pageSize, (end + 1) * pageSize);
+            }
+            default:
+                throw nak();
+        }
+    }
+
+    private IOException nak() {
+        idle = true;
+        return new IOException("Transceive failed");
+    }
+
+    private void simulateLatency() {
+        if (latencyNanos <= 0) {
+            return;
+        }
+        long until = System.nanoTime() + latencyNanos;
+        while (System.nanoTime() < until) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return maxTransceiveLength;
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+    }
+}
@@ -0,0 +1,24 @@
+package dev.semler.nfc_in_flutter.transport;
+
+import java.io.IOException;
+
+/**
+ * TagTransport is a raw command channel to a tag. It abstracts the Android
+ * tag technologies, so tag protocols can be implemented and tested on a
+ * plain JVM.
+ */
+public interface TagTransport {
+    void connect() throws IOException;
+
+    /**
+     * Sends a raw command to the tag and returns its response.
+     */
+    byte[] transceive(byte[] command) throws IOException;
+
+    /**
+     * @return the maximum number of bytes a single response may hold
+     */
+    int getMaxTransceiveLength();
+
+    void close() throws IOException;
+}
@@ -0,0 +1,179 @@
+package dev.semler.nfc_in_flutter.transport;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Type2TagReader reads the NDEF message of a NFC Forum Type 2 tag, such as
+ * NTAG21x and MIFARE Ultralight, over a raw {@link TagTransport}.
+ * <p>
+ * Pages are read in as few commands as possible: FAST_READ is used to read
+ * page ranges as large as the transceive limit allows, falling back to
+ * 4-page READ commands on tags that don't support it. Only the pages holding
+ * the NDEF TLV are read.
+ * <p>
+ * A tag that NAKs a command goes back to its idle state and ignores every
+ * command after it, so the transport is reconnected before falling back to
+ * READ.
+ */
+public class Type2TagReader {
+    static final byte CMD_READ = 0x30;
+    static final byte CMD_FAST_READ = 0x3A;
+
+    static final int PAGE_SIZE = 4;
+    static final int CC_PAGE = 3;
+    static final int DATA_PAGE = 4;
+    static final int CC_MAGIC = 0xE1;
+
+    private static final int TLV_NULL = 0x00;
+    private static final int TLV_NDEF = 0x03;
+    private static final int TLV_TERMINATOR = 0xFE;
+
+    private final TagTransport transport;
+    private boolean fastReadSupported;
+    private int commands = 0;
+
+    public Type2TagReader(TagTransport transport) {
+        this(transport, true);
+    }
+
+    /**
+     * @param fastRead false to only use READ, for tags known not to support
+     *                 FAST_READ
+     */
+    public Type2TagReader(TagTransport transport, boolean fastRead) {
+        this.transport = transport;
+        this.fastReadSupported = fastRead;
+    }
+
+    /**
+     * @return the number of commands sent to the tag so far
+     */
+    public int commandCount() {
+        return commands;
+    }
+
+    /**
+     * Reads the tag's NDEF message. The transport must be connected.
+     *
+     * @return the serialized NDEF message, an empty array if the tag holds
+     * an empty NDEF message, or null if the tag isn't NDEF formatted
+     */
+    public byte[] readNdef() throws IOException {
+        // READ returns 4 pages, so this also gets the first data pages
+        byte[] head = read(CC_PAGE);
+        if ((head[0] & 0xFF) != CC_MAGIC) {
+            return null;
+        }
+        int dataSize = (head[2] & 0xFF) * 8;
+        int dataPages = (dataSize + PAGE_SIZE - 1) / PAGE_SIZE;
+
+        // The data area read so far, grown as needed
+        byte[] data = Arrays.copyOfRange(head, PAGE_SIZE, head.length);
+        int position = 0;
+        while (position < dataSize) {
+            // Enough for the longest TLV header
+            data = ensure(data, Math.min(position + 4, dataPages * PAGE_SIZE), dataPages);
+            int type = data[position] & 0xFF;
+            if (type == TLV_NULL) {
+                position++;
+                continue;
+            }
+            if (type == TLV_TERMINATOR) {
+                return null;
+            }
+            if (position + 1 >= data.length) {
+                throw new IOException("truncated TLV");
+            }
+            int length = data[position + 1] & 0xFF;
+            int valueOffset = position + 2;
+            if (length == 0xFF) {
+                if (position + 3 >= data.length) {
+                    throw new IOException("truncated TLV");
+                }
+                length = ((data[position + 2] & 0xFF) << 8) | (data[position + 3] & 0xFF);
+                valueOffset = position + 4;
+            }
+            if (valueOffset + length > dataSize) {
+                throw new IOException("TLV exceeds the tag's data area");
+            }
+            if (type == TLV_NDEF) {
+                data = ensure(data, valueOffset + length, dataPages);
+                return Arrays.copyOfRange(data, valueOffset, valueOffset + length);
+            }
+            position = valueOffset + length;
+        }
+        return null;
+    }
+
+    /**
+     * Makes sure the first {@code length} bytes of the data area have been
+     * read, reading everything that is missing in as few commands as
+     * possible.
+     */
+    private byte[] ensure(byte[] data, int length, int dataPages) throws IOException {
+        if (length <= data.length) {
+            return data;
+        }
+        int firstPage = data.length / PAGE_SIZE;
+        int lastPage = Math.min(dataPages, (length + PAGE_SIZE - 1) / PAGE_SIZE) - 1;
+        if (lastPage < firstPage) {
+            throw new IOException("read beyond the tag's data area");
+        }
+        byte[] grown = Arrays.copyOf(data, (lastPage + 1) * PAGE_SIZE);
+        int page = firstPage;
+        while (page <= lastPage) {
+            int read = readInto(grown, DATA_PAGE + page, page * PAGE_SIZE, lastPage - page + 1);
+            page += read;
+        }
+        return grown;
+    }
+
+    /**
+     * Reads up to {@code pages} pages starting at the absolute page
+     * {@code page} into {@code out} at {@code offset}.
+     *
+     * @return the number of pages read
+     */
+    private int readInto(byte[] out, int page, int offset, int pages) throws IOException {
+        if (fastReadSupported) {
+            int maxPages = Math.max(1, transport.getMaxTransceiveLength() / PAGE_SIZE);
+            int count = Math.min(pages, maxPages);
+            try {
+                byte[] response = transceive(new byte[]{CMD_FAST_READ, (byte) page, (byte) (page + count - 1)});
+                if (response.length >= count * PAGE_SIZE) {
+                    System.arraycopy(response, 0, out, offset, count * PAGE_SIZE);
+                    return count;
+                }
+            } catch (IOException e) {
+                // Tags without FAST_READ NAK the command, which Android
+                // reports as an IOException, and stop answering until they
+                // are selected again. Fall through to READ.
+                reconnect();
+            }
+            fastReadSupported = false;
+        }
+        byte[] response = read(page);
+        int count = Math.min(pages, response.length / PAGE_SIZE);
+        System.arraycopy(response, 0, out, offset, count * PAGE_SIZE);
+        return count;
+    }
+
+    private void reconnect() throws IOException {
+        transport.close();
+        transport.connect();
+    }
+
+    private byte[] read(int page) throws IOException {
+        byte[] response = transceive(new byte[]{CMD_READ, (byte) page});
+        if (response.length < 4 * PAGE_SIZE) {
+            throw new IOException("short READ response");
+        }
+        return response;
+    }
+
+    private byte[] transceive(byte[] command) throws IOException {
+        commands++;
+        return transport.transceive(command);
+    }
+}
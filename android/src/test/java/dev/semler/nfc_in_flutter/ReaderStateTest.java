@@ -0,0 +1,125 @@
+package dev.semler.nfc_in_flutter;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReaderStateTest {
+    @Test
+    public void startsIdle() {
+        ReaderState state = new ReaderState();
+
+        assertEquals(ReaderState.IDLE, state.phase());
+        assertFalse(state.isReading());
+        assertEquals(0, state.writesInFlight());
+        assertNull(state.mode());
+    }
+
+    @Test
+    public void followsReaderAndWrites() {
+        ReaderState state = new ReaderState();
+        state.readerStarted();
+        assertEquals(ReaderState.READING, state.phase());
+
+        state.beginWrite();
+        assertEquals(ReaderState.WRITING, state.phase());
+
+        state.readerStopped();
+        assertEquals(ReaderState.DRAINING, state.phase());
+        assertEquals(1, state.writesInFlight());
+
+        state.endWrite();
+        assertEquals(ReaderState.IDLE, state.phase());
+    }
+
+    @Test
+    public void keepsWritesWhenReaderRestarts() {
+        ReaderState state = new ReaderState();
+        state.beginWrite();
+        state.beginWrite();
+        state.readerStarted();
+        state.readerStopped();
+        state.readerStarted();
+
+        assertEquals(2, state.writesInFlight());
+        assertEquals(ReaderState.WRITING, state.phase());
+    }
+
+    @Test
+    public void claimsOneModeAtATime() {
+        ReaderState state = new ReaderState();
+
+        assertTrue(state.claimMode(ReaderState.NORMAL_MODE));
+        assertTrue(state.claimMode(ReaderState.NORMAL_MODE));
+        assertFalse(state.claimMode(ReaderState.DISPATCH_MODE));
+        assertEquals(ReaderState.NORMAL_MODE, state.mode());
+
+        state.releaseMode();
+        assertTrue(state.claimMode(ReaderState.DISPATCH_MODE));
+        assertEquals(ReaderState.DISPATCH_MODE, state.mode());
+    }
+
+    @Test
+    public void keepsModeApartFromReaderAndWrites() {
+        ReaderState state = new ReaderState();
+        state.claimMode(ReaderState.DISPATCH_MODE);
+        state.readerStarted();
+        state.beginWrite();
+        state.releaseMode();
+
+        assertNull(state.mode());
+        assertTrue(state.isReading());
+        assertEquals(1, state.writesInFlight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownMode() {
+        new ReaderState().claimMode("other");
+    }
+
+    @Test
+    public void namesPhases() {
+        assertEquals("idle", ReaderState.phaseName(ReaderState.IDLE));
+        assertEquals("reading", ReaderState.phaseName(ReaderState.READING));
+        assertEquals("writing", ReaderState.phaseName(ReaderState.WRITING));
+        assertEquals("draining", ReaderState.phaseName(ReaderState.DRAINING));
+    }
+
+    @Test
+    public void countsWritesFromManyThreads() throws InterruptedException {
+        final ReaderState state = new ReaderState();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 10000; j++) {
+                        state.beginWrite();
+                        state.readerStarted();
+                        state.endWrite();
+                        state.readerStopped();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, state.writesInFlight());
+        assertEquals(ReaderState.IDLE, state.phase());
+    }
+}
@@ -0,0 +1,333 @@
+package dev.semler.nfc_in_flutter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TagEventDispatcherTest {
+    private FakeMainThread mainThread;
+    private FakeSink sink;
+    private FakeReaderControl reader;
+    private TagEventDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        mainThread = new FakeMainThread();
+        sink = new FakeSink();
+        reader = new FakeReaderControl();
+        dispatcher = new TagEventDispatcher(null, mainThread);
+        dispatcher.setSink(sink);
+        dispatcher.setReaderControl(reader);
+    }
+
+    @Test
+    public void deliversEventsInOrder() {
+        dispatcher.success("a");
+        dispatcher.success("b");
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("a", "b"), sink.events);
+    }
+
+    @Test
+    public void sharesOneFlushBetweenEvents() {
+        dispatcher.success("a");
+        dispatcher.success("b");
+
+        assertEquals(1, mainThread.queue.size());
+    }
+
+    @Test
+    public void batchesEvents() {
+        dispatcher.configure(3, 0);
+        for (String event : new String[]{"a", "b", "c", "d"}) {
+            dispatcher.success(event);
+        }
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList(Arrays.asList("a", "b", "c"), "d"), sink.events);
+    }
+
+    @Test
+    public void delaysPartialBatches() {
+        dispatcher.configure(3, 50);
+        dispatcher.success("a");
+
+        assertEquals(50, mainThread.lastDelayMillis);
+    }
+
+    @Test
+    public void deliversErrorsBetweenBatches() {
+        dispatcher.configure(3, 0);
+        dispatcher.success("a");
+        dispatcher.error("E", "failed", null);
+        dispatcher.success("b");
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("a", "error:E", "b"), sink.events);
+    }
+
+    @Test
+    public void holdsEventsWhileDeliveryIsPaused() {
+        dispatcher.pause();
+        dispatcher.success("a");
+        mainThread.runAll();
+        assertTrue(sink.events.isEmpty());
+
+        dispatcher.resume();
+        mainThread.runAll();
+        assertEquals(Arrays.<Object>asList("a"), sink.events);
+    }
+
+    @Test
+    public void dropOldestMakesRoom() {
+        dispatcher.configureQueue(2, TagEventDispatcher.DROP_OLDEST);
+        dispatcher.success("a");
+        dispatcher.success("b");
+        dispatcher.success("c");
+        Map<String, Object> stats = queueStats();
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("b", "c"), sink.events);
+        assertEquals(2, stats.get("queue_depth"));
+        assertEquals(2, stats.get("max_queue_depth"));
+        assertEquals(1L, stats.get("dropped"));
+    }
+
+    @Test
+    public void dropNewestDropsNewEvent() {
+        dispatcher.configureQueue(2, TagEventDispatcher.DROP_NEWEST);
+        dispatcher.success("a");
+        dispatcher.success("b");
+        dispatcher.success("c");
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("a", "b"), sink.events);
+        assertEquals(1L, queueStats().get("dropped"));
+    }
+
+    @Test
+    public void coalesceReplacesEventOfSameTag() {
+        dispatcher.configureQueue(2, TagEventDispatcher.COALESCE);
+        dispatcher.success("1", "a");
+        dispatcher.success("2", "b");
+        dispatcher.success("1", "c");
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("c", "b"), sink.events);
+        assertEquals(1L, queueStats().get("dropped"));
+    }
+
+    @Test
+    public void coalesceDropsOldestOfOtherTags() {
+        dispatcher.configureQueue(2, TagEventDispatcher.COALESCE);
+        dispatcher.success("1", "a");
+        dispatcher.success("2", "b");
+        dispatcher.success("3", "c");
+        // "1" was dropped, so it is queued again rather than replaced
+        dispatcher.success("1", "d");
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("c", "d"), sink.events);
+        assertEquals(2L, queueStats().get("dropped"));
+    }
+
+    @Test
+    public void errorsPushOutTags() {
+        dispatcher.configureQueue(2, TagEventDispatcher.DROP_NEWEST);
+        dispatcher.success("a");
+        dispatcher.success("b");
+        dispatcher.error("E", "failed", null);
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("b", "error:E"), sink.events);
+    }
+
+    @Test
+    public void tagsDontPushOutErrors() {
+        dispatcher.configureQueue(2, TagEventDispatcher.DROP_OLDEST);
+        dispatcher.error("E", "failed", null);
+        dispatcher.success("a");
+        dispatcher.success("b");
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("error:E", "b"), sink.events);
+    }
+
+    @Test
+    public void errorsAreBounded() {
+        dispatcher.configureQueue(2, TagEventDispatcher.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            dispatcher.error("E" + i, "failed", null);
+        }
+        assertEquals(2, queueStats().get("max_queue_depth"));
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("error:E3", "error:E4"), sink.events);
+    }
+
+    @Test
+    public void errorsAreBoundedWhenDroppingNewest() {
+        dispatcher.configureQueue(2, TagEventDispatcher.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            dispatcher.error("E" + i, "failed", null);
+        }
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("error:E0", "error:E1"), sink.events);
+        assertEquals(3L, queueStats().get("dropped"));
+    }
+
+    @Test
+    public void pausesReaderUntilQueueIsDelivered() {
+        dispatcher.configureQueue(1, TagEventDispatcher.PAUSE_READER);
+        dispatcher.pause();
+        dispatcher.success("a");
+        dispatcher.success("b");
+        dispatcher.success("c");
+        mainThread.runAll();
+        assertEquals(1, reader.pauses);
+        assertEquals(0, reader.resumes);
+
+        dispatcher.resume();
+        mainThread.runAll();
+        assertEquals(Arrays.<Object>asList("a"), sink.events);
+        assertEquals(1, reader.resumes);
+        assertEquals(2L, queueStats().get("dropped"));
+    }
+
+    @Test
+    public void flushBeforePauseCancelsIt() {
+        dispatcher.configureQueue(1, TagEventDispatcher.PAUSE_READER);
+        // The flush is posted before the pause, so it empties the queue
+        // before the pause runs
+        dispatcher.success("a");
+        dispatcher.success("b");
+        mainThread.runAll();
+
+        assertEquals(Arrays.<Object>asList("a"), sink.events);
+        assertEquals(0, reader.pauses);
+        assertEquals(0, reader.resumes);
+
+        // The reader can be paused again
+        dispatcher.pause();
+        dispatcher.success("c");
+        dispatcher.success("d");
+        mainThread.runAll();
+        assertEquals(1, reader.pauses);
+    }
+
+    @Test
+    public void dropBeforeQueueFollowsPolicy() {
+        dispatcher.configureQueue(1, TagEventDispatcher.DROP_OLDEST);
+        assertTrue(dispatcher.dropBeforeQueue());
+        dispatcher.configureQueue(1, TagEventDispatcher.COALESCE);
+        assertTrue(dispatcher.dropBeforeQueue());
+        dispatcher.configureQueue(1, TagEventDispatcher.DROP_NEWEST);
+        assertFalse(dispatcher.dropBeforeQueue());
+        dispatcher.configureQueue(1, TagEventDispatcher.PAUSE_READER);
+        assertFalse(dispatcher.dropBeforeQueue());
+        mainThread.runAll();
+
+        assertEquals(1, reader.pauses);
+        assertEquals(4L, queueStats().get("dropped"));
+    }
+
+    @Test
+    public void resetsQueueStats() {
+        dispatcher.configureQueue(1, TagEventDispatcher.DROP_NEWEST);
+        dispatcher.success("a");
+        dispatcher.success("b");
+        mainThread.runAll();
+        dispatcher.resetQueueStats();
+        Map<String, Object> stats = queueStats();
+
+        assertEquals(0, stats.get("queue_depth"));
+        assertEquals(0, stats.get("max_queue_depth"));
+        assertEquals(0L, stats.get("dropped"));
+    }
+
+    private Map<String, Object> queueStats() {
+        Map<String, Object> stats = new HashMap<>();
+        dispatcher.putQueueStats(stats);
+        return stats;
+    }
+
+    /**
+     * Runs posted runnables when asked to, in the order they were posted.
+     */
+    private static class FakeMainThread implements TagEventDispatcher.MainThread {
+        final List<Runnable> queue = new ArrayList<>();
+        long lastDelayMillis;
+
+        @Override
+        public void post(Runnable runnable) {
+            queue.add(runnable);
+        }
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayMillis) {
+            lastDelayMillis = delayMillis;
+            queue.add(runnable);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            queue.removeAll(Collections.singleton(runnable));
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                queue.remove(0).run();
+            }
+        }
+    }
+
+    /**
+     * Records delivered events, and errors as "error:" followed by the code.
+     */
+    private static class FakeSink implements EventChannel.EventSink {
+        final List<Object> events = new ArrayList<>();
+
+        @Override
+        public void success(Object event) {
+            events.add(event);
+        }
+
+        @Override
+        public void error(String code, String message, Object details) {
+            events.add("error:" + code);
+        }
+
+        @Override
+        public void endOfStream() {
+        }
+    }
+
+    private static class FakeReaderControl implements TagEventDispatcher.ReaderControl {
+        int pauses;
+        int resumes;
+
+        @Override
+        public void pauseReader() {
+            pauses++;
+        }
+
+        @Override
+        public void resumeReader() {
+            resumes++;
+        }
+    }
+}
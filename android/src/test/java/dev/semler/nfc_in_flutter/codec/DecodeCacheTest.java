@@ -0,0 +1,167 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DecodeCacheTest {
+    // Estimated size of an entry of a 10 byte message with one record
+    private static final long ENTRY_SIZE = 64 + 6 * 10 + 128;
+
+    // Two messages with the same 64-bit FNV-1a hash
+    private static final byte[] COLLIDING_A = bytes(0x81, 0x3A, 0xF6, 0xC1, 0xE1, 0x87, 0x87, 0x6B);
+    private static final byte[] COLLIDING_B = bytes(0x58, 0xF1, 0x0F, 0xE9, 0x0F, 0x9D, 0x07, 0x50);
+
+    @Test
+    public void cachesDecodedRecords() {
+        DecodeCache cache = new DecodeCache(1024);
+        assertNull(cache.get(message(1), "A"));
+
+        List<Map<String, Object>> shared = cache.put(message(1), "A", records());
+        assertSame(shared, cache.get(message(1), "A"));
+        Map<String, Object> stats = stats(cache);
+        assertEquals(1L, stats.get("decode_cache_hits"));
+        assertEquals(1L, stats.get("decode_cache_misses"));
+        assertEquals(1, stats.get("decode_cache_entries"));
+        assertEquals(ENTRY_SIZE, stats.get("decode_cache_bytes"));
+    }
+
+    @Test
+    public void keysByTagType() {
+        DecodeCache cache = new DecodeCache(1024);
+        cache.put(message(1), "A", records());
+
+        assertNull(cache.get(message(1), "B"));
+        assertNull(cache.get(message(1), null));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void sharesUnmodifiableRecords() {
+        DecodeCache cache = new DecodeCache(1024);
+        cache.put(message(1), "A", records()).clear();
+    }
+
+    @Test
+    public void copiesMessage() {
+        DecodeCache cache = new DecodeCache(1024);
+        byte[] message = message(1);
+        cache.put(message, "A", records());
+        message[0] = 2;
+
+        assertNull(cache.get(message, "A"));
+        assertNotNull(cache.get(message(1), "A"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        DecodeCache cache = new DecodeCache(3 * ENTRY_SIZE);
+        cache.put(message(1), "A", records());
+        cache.put(message(2), "A", records());
+        cache.put(message(3), "A", records());
+        cache.get(message(1), "A");
+        cache.put(message(4), "A", records());
+
+        assertNull(cache.get(message(2), "A"));
+        assertNotNull(cache.get(message(1), "A"));
+        assertNotNull(cache.get(message(3), "A"));
+        assertNotNull(cache.get(message(4), "A"));
+        Map<String, Object> stats = stats(cache);
+        assertEquals(1L, stats.get("decode_cache_evictions"));
+        assertEquals(3 * ENTRY_SIZE, stats.get("decode_cache_bytes"));
+    }
+
+    @Test
+    public void staysUnderByteBound() {
+        DecodeCache cache = new DecodeCache(5 * ENTRY_SIZE + ENTRY_SIZE / 2);
+        for (int i = 0; i < 100; i++) {
+            cache.put(message(i), "A", records());
+        }
+        Map<String, Object> stats = stats(cache);
+
+        assertEquals(5, stats.get("decode_cache_entries"));
+        assertEquals(5 * ENTRY_SIZE, stats.get("decode_cache_bytes"));
+        assertEquals(95L, stats.get("decode_cache_evictions"));
+    }
+
+    @Test
+    public void replacesEntryOfSameMessage() {
+        DecodeCache cache = new DecodeCache(1024);
+        cache.put(message(1), "A", records());
+        List<Map<String, Object>> shared = cache.put(message(1), "A", records());
+
+        assertSame(shared, cache.get(message(1), "A"));
+        assertEquals(ENTRY_SIZE, stats(cache).get("decode_cache_bytes"));
+    }
+
+    @Test
+    public void skipsEntriesLargerThanCache() {
+        DecodeCache cache = new DecodeCache(ENTRY_SIZE - 1);
+        List<Map<String, Object>> shared = cache.put(message(1), "A", records());
+
+        assertEquals(1, shared.size());
+        assertNull(cache.get(message(1), "A"));
+        assertEquals(0, stats(cache).get("decode_cache_entries"));
+    }
+
+    @Test
+    public void treatsHashCollisionAsMiss() {
+        assertEquals(ContentHash.hash(COLLIDING_A), ContentHash.hash(COLLIDING_B));
+        DecodeCache cache = new DecodeCache(1024);
+        cache.put(COLLIDING_A, "A", records());
+
+        assertNull(cache.get(COLLIDING_B, "A"));
+        assertNotNull(cache.get(COLLIDING_A, "A"));
+    }
+
+    @Test
+    public void resetsCounters() {
+        DecodeCache cache = new DecodeCache(1024);
+        cache.get(message(1), "A");
+        cache.put(message(1), "A", records());
+        cache.get(message(1), "A");
+        cache.resetStats();
+        Map<String, Object> stats = stats(cache);
+
+        assertEquals(0L, stats.get("decode_cache_hits"));
+        assertEquals(0L, stats.get("decode_cache_misses"));
+        assertEquals(1, stats.get("decode_cache_entries"));
+    }
+
+    private static Map<String, Object> stats(DecodeCache cache) {
+        Map<String, Object> stats = new HashMap<>();
+        cache.putStats(stats);
+        return stats;
+    }
+
+    /**
+     * @return a 10 byte message starting with first
+     */
+    private static byte[] message(int first) {
+        byte[] message = new byte[10];
+        message[0] = (byte) first;
+        return message;
+    }
+
+    private static List<Map<String, Object>> records() {
+        List<Map<String, Object>> records = new ArrayList<>();
+        records.add(Collections.<String, Object>singletonMap("payload", "hi"));
+        return records;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,161 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NdefDecoderTest {
+    @Test
+    public void decodesTextRecord() throws NdefFormatException {
+        byte[] payload = {0x02, 'e', 'n', 'h', 'i'};
+        Map<String, Object> record = decodeOne(record(NdefDecoder.TNF_WELL_KNOWN, "T", payload));
+
+        assertEquals("well_known", record.get("tnf"));
+        assertEquals("T", record.get("type"));
+        assertEquals("en", record.get("languageCode"));
+        assertEquals("hi", record.get("data"));
+        assertEquals("enhi", record.get("payload"));
+        assertArrayEquals(payload, (byte[]) record.get("rawPayload"));
+    }
+
+    @Test
+    public void decodesTextRecordWithoutText() throws NdefFormatException {
+        Map<String, Object> record = decodeOne(record(NdefDecoder.TNF_WELL_KNOWN, "T", new byte[]{0x02, 'e', 'n'}));
+
+        assertEquals("en", record.get("languageCode"));
+        assertEquals("", record.get("data"));
+    }
+
+    @Test(expected = NdefFormatException.class)
+    public void rejectsLanguageCodeLongerThanPayload() throws NdefFormatException {
+        decodeOne(record(NdefDecoder.TNF_WELL_KNOWN, "T", new byte[]{0x05, 'e', 'n'}));
+    }
+
+    @Test(expected = NdefFormatException.class)
+    public void registryRejectsLanguageCodeLongerThanPayload() throws NdefFormatException {
+        RecordDecoderRegistry registry = RecordDecoderRegistry.withBuiltIns(Collections.singletonList(RecordDecoderRegistry.TEXT));
+        registry.decodeRecords(record(NdefDecoder.TNF_WELL_KNOWN, "T", new byte[]{0x05, 'e', 'n'}));
+    }
+
+    @Test
+    public void decodesUtf16TextRecord() throws NdefFormatException {
+        byte[] text = "hi".getBytes(StandardCharsets.UTF_16);
+        byte[] payload = new byte[3 + text.length];
+        payload[0] = (byte) 0x82;
+        payload[1] = 'e';
+        payload[2] = 'n';
+        System.arraycopy(text, 0, payload, 3, text.length);
+        Map<String, Object> record = decodeOne(record(NdefDecoder.TNF_WELL_KNOWN, "T", payload));
+
+        assertEquals("en", record.get("languageCode"));
+        assertEquals("hi", record.get("data"));
+    }
+
+    @Test
+    public void decodesUriRecordWithPrefix() throws NdefFormatException {
+        Map<String, Object> record = decodeOne(record(NdefDecoder.TNF_WELL_KNOWN, "U", new byte[]{0x04, 'a', '.', 'b'}));
+
+        assertEquals("a.b", record.get("data"));
+        assertEquals("https://a.b", record.get("payload"));
+    }
+
+    @Test
+    public void decodesUriRecordWithUndefinedPrefix() throws NdefFormatException {
+        Map<String, Object> record = decodeOne(record(NdefDecoder.TNF_WELL_KNOWN, "U", new byte[]{0x7F, 'x'}));
+
+        assertEquals("x", record.get("data"));
+        assertEquals("x", record.get("payload"));
+    }
+
+    @Test
+    public void decodesEmptyWellKnownRecordsAsUtf8() throws NdefFormatException {
+        Map<String, Object> record = decodeOne(record(NdefDecoder.TNF_WELL_KNOWN, "U", new byte[0]));
+
+        assertEquals("", record.get("payload"));
+        assertEquals("", record.get("data"));
+        assertFalse(record.containsKey("languageCode"));
+    }
+
+    @Test
+    public void decodesOtherRecordsAsUtf8() throws NdefFormatException {
+        Map<String, Object> record = decodeOne(record(NdefDecoder.TNF_MIME_MEDIA, "text/plain", "h\u00e9llo".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("mime_media", record.get("tnf"));
+        assertEquals("h\u00e9llo", record.get("payload"));
+        assertEquals("h\u00e9llo", record.get("data"));
+    }
+
+    @Test
+    public void decodesLazilyWithoutStrings() throws NdefFormatException {
+        List<Map<String, Object>> records = NdefDecoder.decodeRecords(record(NdefDecoder.TNF_WELL_KNOWN, "T", new byte[]{0x02, 'e', 'n', 'h'}), true);
+
+        assertEquals(1, records.size());
+        assertFalse(records.get(0).containsKey("payload"));
+        assertTrue(records.get(0).containsKey("rawPayload"));
+    }
+
+    @Test
+    public void decodesEmptyMessage() throws NdefFormatException {
+        assertTrue(NdefDecoder.decodeRecords(new byte[0]).isEmpty());
+    }
+
+    @Test(expected = NdefFormatException.class)
+    public void rejectsTruncatedMessage() throws NdefFormatException {
+        byte[] message = record(NdefDecoder.TNF_WELL_KNOWN, "T", new byte[]{0x02, 'e', 'n', 'h', 'i'});
+        NdefDecoder.decodeRecords(Arrays.copyOf(message, message.length - 2));
+    }
+
+    @Test
+    public void mapsUriPrefixTable() {
+        assertEquals("", NdefDecoder.uriPrefix(0x00));
+        assertEquals("http://www.", NdefDecoder.uriPrefix(0x01));
+        assertEquals("https://www.", NdefDecoder.uriPrefix(0x02));
+        assertEquals("http://", NdefDecoder.uriPrefix(0x03));
+        assertEquals("https://", NdefDecoder.uriPrefix(0x04));
+        assertEquals("tel:", NdefDecoder.uriPrefix(0x05));
+        assertEquals("mailto:", NdefDecoder.uriPrefix(0x06));
+        assertEquals("file://", NdefDecoder.uriPrefix(0x1D));
+        assertEquals("urn:epc:id:", NdefDecoder.uriPrefix(0x1E));
+        assertEquals("urn:nfc:", NdefDecoder.uriPrefix(0x23));
+        assertEquals("", NdefDecoder.uriPrefix(0x24));
+        assertEquals("", NdefDecoder.uriPrefix(0xFF));
+    }
+
+    @Test
+    public void mapsTnfNames() {
+        assertEquals("empty", NdefDecoder.tnfName(NdefDecoder.TNF_EMPTY));
+        assertEquals("external_type", NdefDecoder.tnfName(NdefDecoder.TNF_EXTERNAL_TYPE));
+        assertEquals("unchanged", NdefDecoder.tnfName(NdefDecoder.TNF_UNCHANGED));
+        assertEquals("unknown", NdefDecoder.tnfName(0x07));
+    }
+
+    private static Map<String, Object> decodeOne(byte[] message) throws NdefFormatException {
+        List<Map<String, Object>> records = NdefDecoder.decodeRecords(message);
+        assertEquals(1, records.size());
+        return records.get(0);
+    }
+
+    /**
+     * @return a message of a single short record
+     */
+    private static byte[] record(int tnf, String type, byte[] payload) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xD0 | tnf);
+        out.write(typeBytes.length);
+        out.write(payload.length);
+        out.write(typeBytes, 0, typeBytes.length);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+}
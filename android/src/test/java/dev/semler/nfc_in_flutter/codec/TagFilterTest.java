@@ -0,0 +1,155 @@
+package dev.semler.nfc_in_flutter.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TagFilterTest {
+    private static final byte[] ID = {0x04, 0x12, 0x34, 0x56};
+
+    @Test
+    public void emptyFilterMatchesAnyTag() throws NdefFormatException {
+        TagFilter filter = TagFilter.fromMap(new HashMap<String, Object>());
+
+        assertTrue(filter.matches(ID, null));
+        assertTrue(filter.matches(null, message(text("hi"))));
+    }
+
+    @Test
+    public void matchesTnfAndType() throws NdefFormatException {
+        TagFilter filter = TagFilter.fromMap(map("tnf", "well_known", "type", "T"));
+
+        assertTrue(filter.matches(ID, message(text("hi"))));
+        assertFalse(filter.matches(ID, message(uri("a.b"))));
+        assertFalse(filter.matches(ID, message(mime("T", new byte[1]))));
+    }
+
+    @Test
+    public void matchesAnyRecordOfMessage() throws NdefFormatException {
+        TagFilter filter = TagFilter.fromMap(map("type", "U"));
+
+        assertTrue(filter.matches(ID, message(text("hi"), uri("a.b"))));
+    }
+
+    @Test
+    public void recordCriteriaDontMatchEmptyTags() throws NdefFormatException {
+        TagFilter filter = TagFilter.fromMap(map("type", "U"));
+
+        assertFalse(filter.matches(ID, null));
+        assertFalse(filter.matches(ID, new byte[0]));
+    }
+
+    @Test
+    public void matchesMimeTypePrefix() throws NdefFormatException {
+        TagFilter filter = TagFilter.fromMap(map("mime_type", "image/*"));
+
+        assertTrue(filter.matches(ID, message(mime("image/png", new byte[1]))));
+        assertFalse(filter.matches(ID, message(mime("text/plain", new byte[1]))));
+    }
+
+    @Test
+    public void matchesPayloadSize() throws NdefFormatException {
+        TagFilter filter = TagFilter.fromMap(map("min_payload_size", 2, "max_payload_size", 3));
+
+        assertFalse(filter.matches(ID, message(mime("a/b", new byte[1]))));
+        assertTrue(filter.matches(ID, message(mime("a/b", new byte[2]))));
+        assertTrue(filter.matches(ID, message(mime("a/b", new byte[3]))));
+        assertFalse(filter.matches(ID, message(mime("a/b", new byte[4]))));
+    }
+
+    @Test
+    public void matchesIdPrefix() throws NdefFormatException {
+        TagFilter filter = TagFilter.fromMap(map("id_prefix", "0412"));
+
+        assertTrue(filter.matches(ID, null));
+        assertFalse(filter.matches(new byte[]{0x05, 0x12, 0x34}, null));
+        assertFalse(filter.matches(new byte[]{0x04}, null));
+        assertFalse(filter.matches(null, null));
+    }
+
+    @Test
+    public void matchesIdPrefixUnderMask() throws NdefFormatException {
+        TagFilter filter = TagFilter.fromMap(map("id_prefix", "0410", "id_mask", "FFF0"));
+
+        assertTrue(filter.matches(ID, null));
+        assertFalse(filter.matches(new byte[]{0x04, 0x22}, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMimeTypeWithType() {
+        TagFilter.fromMap(map("mime_type", "text/plain", "type", "T"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMimeTypeWithOtherTnf() {
+        TagFilter.fromMap(map("mime_type", "text/plain", "tnf", "well_known"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaskOfOtherLength() {
+        TagFilter.fromMap(map("id_prefix", "0412", "id_mask", "FF"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownTnf() {
+        TagFilter.fromMap(map("tnf", "other"));
+    }
+
+    @Test(expected = NdefFormatException.class)
+    public void rejectsMalformedMessage() throws NdefFormatException {
+        TagFilter.fromMap(map("type", "T")).matches(ID, new byte[]{0x11, 0x01});
+    }
+
+    private static Map<String, Object> map(Object... keysAndValues) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    private static byte[] text(String text) {
+        return record(NdefDecoder.TNF_WELL_KNOWN, "T", ("\u0002en" + text).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] uri(String uri) {
+        return record(NdefDecoder.TNF_WELL_KNOWN, "U", ("\u0004" + uri).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] mime(String type, byte[] payload) {
+        return record(NdefDecoder.TNF_MIME_MEDIA, type, payload);
+    }
+
+    /**
+     * @return a short record without the MB and ME flags
+     */
+    private static byte[] record(int tnf, String type, byte[] payload) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x10 | tnf);
+        out.write(typeBytes.length);
+        out.write(payload.length);
+        out.write(typeBytes, 0, typeBytes.length);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return a message of records, with the MB and ME flags set
+     */
+    private static byte[] message(byte[]... records) {
+        records[0][0] |= 0x80;
+        records[records.length - 1][0] |= 0x40;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            out.write(record, 0, record.length);
+        }
+        return out.toByteArray();
+    }
+}
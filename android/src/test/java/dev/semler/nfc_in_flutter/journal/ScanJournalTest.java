@@ -0,0 +1,225 @@
+package dev.semler.nfc_in_flutter.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanJournalTest {
+    private static final int SEGMENT_SIZE = 4096;
+    private static final byte[] ID = {0x04, 0x12};
+    // A read of ID with type "T2" and a 3 byte message
+    private static final int READ_SIZE = ScanJournal.RECORD_OVERHEAD + 2 + 2 + 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void queriesAppendedRecords() throws IOException {
+        ScanJournal journal = open(3);
+        journal.appendRead(1, ID, "T2", true, new byte[]{1, 2, 3});
+        journal.appendError(2, null, "NFCTagLost", "tag lost");
+        List<JournalEntry> entries = all(journal);
+
+        assertEquals(2, entries.size());
+        JournalEntry read = entries.get(0);
+        assertEquals(1, read.timestamp);
+        assertFalse(read.isError());
+        assertTrue(read.writable);
+        assertArrayEquals(ID, read.tagId);
+        assertEquals("T2", read.type);
+        assertArrayEquals(new byte[]{1, 2, 3}, read.data);
+        JournalEntry error = entries.get(1);
+        assertTrue(error.isError());
+        assertEquals(0, error.tagId.length);
+        assertEquals("NFCTagLost", error.type);
+        assertArrayEquals("tag lost".getBytes(StandardCharsets.UTF_8), error.data);
+    }
+
+    @Test
+    public void filtersQueries() throws IOException {
+        ScanJournal journal = open(3);
+        for (int i = 0; i < 10; i++) {
+            journal.appendRead(i, i % 2 == 0 ? ID : new byte[]{1}, "T2", false, null);
+        }
+
+        assertEquals(3, journal.query(2, 4, null, 100).size());
+        assertEquals(5, journal.query(0, Long.MAX_VALUE, ID, 100).size());
+        List<JournalEntry> limited = journal.query(0, Long.MAX_VALUE, null, 4);
+        assertEquals(4, limited.size());
+        assertEquals(3, limited.get(3).timestamp);
+    }
+
+    @Test
+    public void keepsRecordsAcrossRuns() throws IOException {
+        ScanJournal journal = open(3);
+        journal.appendRead(1, ID, "T2", false, new byte[]{1, 2, 3});
+        journal.close();
+
+        journal = open(3);
+        journal.appendRead(2, ID, "T2", false, new byte[]{4, 5, 6});
+        List<JournalEntry> entries = all(journal);
+
+        assertEquals(2, entries.size());
+        assertEquals(1, entries.get(0).timestamp);
+        assertArrayEquals(new byte[]{4, 5, 6}, entries.get(1).data);
+    }
+
+    @Test
+    public void ignoresRecordWithoutLength() throws IOException {
+        ScanJournal journal = open(3);
+        journal.appendRead(1, ID, "T2", false, new byte[]{1, 2, 3});
+        journal.close();
+        // The process died after writing a record, but before its length
+        int end = ScanJournal.SEGMENT_HEADER_SIZE + READ_SIZE;
+        writeAt(segment(0), end + 4, new byte[]{0x7F, 0x7F, 0x7F, 0x7F, 0x7F, 0x7F});
+
+        journal = open(3);
+        assertEquals(1, all(journal).size());
+        journal.appendRead(2, ID, "T2", false, new byte[]{4, 5, 6});
+        List<JournalEntry> entries = all(journal);
+
+        assertEquals(2, entries.size());
+        assertEquals(2, entries.get(1).timestamp);
+        assertArrayEquals(new byte[]{4, 5, 6}, entries.get(1).data);
+    }
+
+    @Test
+    public void ignoresLengthPastSegment() throws IOException {
+        ScanJournal journal = open(3);
+        journal.appendRead(1, ID, "T2", false, new byte[]{1, 2, 3});
+        journal.close();
+        int end = ScanJournal.SEGMENT_HEADER_SIZE + READ_SIZE;
+        writeAt(segment(0), end, new byte[]{0x00, 0x00, 0x10, 0x00});
+
+        journal = open(3);
+        assertEquals(1, all(journal).size());
+        journal.appendRead(2, ID, "T2", false, new byte[]{4, 5, 6});
+
+        assertEquals(2, all(journal).size());
+    }
+
+    @Test
+    public void rollsOverToNewSegments() throws IOException {
+        ScanJournal journal = open(3);
+        // 4 records fit in a segment
+        for (int i = 0; i < 10; i++) {
+            journal.appendRead(i, null, "x", false, new byte[1000]);
+        }
+        List<JournalEntry> entries = all(journal);
+
+        assertEquals(3, segmentCount());
+        assertEquals(10, entries.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, entries.get(i).timestamp);
+        }
+    }
+
+    @Test
+    public void trimsOldestSegments() throws IOException {
+        ScanJournal journal = open(3);
+        for (int i = 0; i < 20; i++) {
+            journal.appendRead(i, null, "x", false, new byte[1000]);
+        }
+        List<JournalEntry> entries = all(journal);
+
+        assertEquals(3, segmentCount());
+        assertFalse(segment(1).exists());
+        assertEquals(12, entries.size());
+        assertEquals(8, entries.get(0).timestamp);
+        assertEquals(19, entries.get(11).timestamp);
+    }
+
+    @Test
+    public void trimsWhenReopenedWithFewerSegments() throws IOException {
+        ScanJournal journal = open(3);
+        for (int i = 0; i < 10; i++) {
+            journal.appendRead(i, null, "x", false, new byte[1000]);
+        }
+        journal.close();
+
+        journal = open(1);
+        assertEquals(1, segmentCount());
+        assertEquals(2, all(journal).size());
+    }
+
+    @Test
+    public void givesLargeRecordItsOwnSegment() throws IOException {
+        ScanJournal journal = open(3);
+        journal.appendRead(1, null, "x", false, new byte[1]);
+        byte[] large = new byte[2 * SEGMENT_SIZE];
+        large[large.length - 1] = 1;
+        journal.appendRead(2, null, "x", false, large);
+        journal.appendRead(3, null, "x", false, new byte[1]);
+        List<JournalEntry> entries = all(journal);
+
+        assertEquals(3, entries.size());
+        assertArrayEquals(large, entries.get(1).data);
+        assertEquals(3, segmentCount());
+    }
+
+    @Test
+    public void deletesCorruptSegments() throws IOException {
+        File corrupt = new File(folder.getRoot(), "segment-0000000000000007.jnl");
+        FileOutputStream out = new FileOutputStream(corrupt);
+        out.write(new byte[16]);
+        out.close();
+
+        ScanJournal journal = open(3);
+        assertFalse(corrupt.exists());
+        assertTrue(all(journal).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAppendsAfterClose() throws IOException {
+        ScanJournal journal = open(3);
+        journal.close();
+        journal.appendError(1, null, "NFCTagLost", null);
+    }
+
+    @Test
+    public void returnsNothingAfterClose() throws IOException {
+        ScanJournal journal = open(3);
+        journal.appendError(1, null, "NFCTagLost", null);
+        journal.close();
+
+        assertTrue(all(journal).isEmpty());
+    }
+
+    private ScanJournal open(int maxSegments) throws IOException {
+        return ScanJournal.open(folder.getRoot(), SEGMENT_SIZE, maxSegments);
+    }
+
+    private static List<JournalEntry> all(ScanJournal journal) {
+        return journal.query(0, Long.MAX_VALUE, null, Integer.MAX_VALUE);
+    }
+
+    private File segment(long sequence) {
+        return new File(folder.getRoot(), String.format("segment-%016d.jnl", sequence));
+    }
+
+    private int segmentCount() {
+        return folder.getRoot().list().length;
+    }
+
+    private static void writeAt(File file, int position, byte[] bytes) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            raf.write(bytes);
+        } finally {
+            raf.close();
+        }
+    }
+}
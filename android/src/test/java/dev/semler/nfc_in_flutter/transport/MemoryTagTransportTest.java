@@ -0,0 +1,81 @@
+package dev.semler.nfc_in_flutter.transport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MemoryTagTransportTest {
+    private static final byte[] READ_CC = {Type2TagReader.CMD_READ, Type2TagReader.CC_PAGE};
+    private static final byte[] FAST_READ_DATA = {Type2TagReader.CMD_FAST_READ, Type2TagReader.DATA_PAGE, 7};
+
+    @Test
+    public void formatsType2Tag() throws IOException {
+        MemoryTagTransport tag = MemoryTagTransport.type2(new byte[]{1, 2, 3}, 48);
+        tag.connect();
+
+        byte[] response = tag.transceive(READ_CC);
+        assertEquals(16, response.length);
+        assertEquals(Type2TagReader.CC_MAGIC, response[0] & 0xFF);
+        assertEquals(48 / 8, response[2]);
+        // NDEF TLV, then the terminator TLV
+        assertEquals(0x03, response[4]);
+        assertEquals(3, response[5]);
+        assertEquals(1, response[6]);
+        assertEquals((byte) 0xFE, response[9]);
+    }
+
+    @Test
+    public void fastReadReturnsPageRange() throws IOException {
+        MemoryTagTransport tag = MemoryTagTransport.type2(new byte[]{1, 2, 3}, 48);
+        tag.connect();
+
+        assertEquals(16, tag.transceive(FAST_READ_DATA).length);
+        assertEquals(1, tag.transceiveCount());
+    }
+
+    @Test
+    public void readRollsOverAtEndOfMemory() throws IOException {
+        MemoryTagTransport tag = new MemoryTagTransport(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 253, true);
+        tag.connect();
+
+        byte[] response = tag.transceive(new byte[]{Type2TagReader.CMD_READ, 1});
+        assertEquals(5, response[0]);
+        assertEquals(1, response[4]);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCommandsWhileDisconnected() throws IOException {
+        MemoryTagTransport.type2(new byte[0], 48).transceive(READ_CC);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFastReadBeyondTransceiveLimit() throws IOException {
+        MemoryTagTransport tag = MemoryTagTransport.type2(new byte[0], 496);
+        tag.connect();
+
+        tag.transceive(new byte[]{Type2TagReader.CMD_FAST_READ, Type2TagReader.DATA_PAGE, 100});
+    }
+
+    @Test
+    public void ignoresCommandsAfterNakUntilReconnected() throws IOException {
+        MemoryTagTransport tag = MemoryTagTransport.type2(new byte[0], 48, false);
+        tag.connect();
+        try {
+            tag.transceive(FAST_READ_DATA);
+            fail("FAST_READ should be rejected");
+        } catch (IOException expected) {
+        }
+        try {
+            tag.transceive(READ_CC);
+            fail("the tag should be idle after a NAK");
+        } catch (IOException expected) {
+        }
+
+        tag.close();
+        tag.connect();
+        assertEquals(16, tag.transceive(READ_CC).length);
+    }
+}
@@ -0,0 +1,151 @@
+package dev.semler.nfc_in_flutter.transport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import dev.semler.nfc_in_flutter.codec.NdefDecoder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Type2TagReaderTest {
+    // NTAG215
+    private static final int DATA_SIZE = 496;
+
+    @Test
+    public void readsMessageWithFastRead() throws IOException {
+        byte[] message = textMessage(400);
+        MemoryTagTransport tag = MemoryTagTransport.type2(message, DATA_SIZE);
+        tag.connect();
+        Type2TagReader reader = new Type2TagReader(tag);
+
+        assertArrayEquals(message, reader.readNdef());
+        // One READ for the header and two FAST_READs of at most 63 pages
+        // for the rest
+        assertEquals(3, reader.commandCount());
+    }
+
+    @Test
+    public void fallsBackToReadAfterFastReadIsRejected() throws IOException {
+        byte[] message = textMessage(400);
+        MemoryTagTransport tag = MemoryTagTransport.type2(message, DATA_SIZE, false);
+        tag.connect();
+        Type2TagReader reader = new Type2TagReader(tag);
+
+        assertArrayEquals(message, reader.readNdef());
+        // The rejected FAST_READ, then READs as without FAST_READ
+        assertEquals(27, reader.commandCount());
+    }
+
+    @Test
+    public void readOnlyReaderNeverSendsFastRead() throws IOException {
+        byte[] message = textMessage(400);
+        MemoryTagTransport tag = MemoryTagTransport.type2(message, DATA_SIZE, false);
+        tag.connect();
+        Type2TagReader reader = new Type2TagReader(tag, false);
+
+        assertArrayEquals(message, reader.readNdef());
+        // The TLV takes 101 pages. The first READ gets the capability
+        // container and 3 of them, the rest take 4 pages per READ.
+        assertEquals(26, reader.commandCount());
+    }
+
+    @Test
+    public void readsShortTlv() throws IOException {
+        byte[] message = textMessage(40);
+        MemoryTagTransport tag = MemoryTagTransport.type2(message, DATA_SIZE);
+        tag.connect();
+        Type2TagReader reader = new Type2TagReader(tag);
+
+        assertArrayEquals(message, reader.readNdef());
+        assertEquals(2, reader.commandCount());
+    }
+
+    @Test
+    public void readsEmptyMessage() throws IOException {
+        MemoryTagTransport tag = MemoryTagTransport.type2(new byte[0], DATA_SIZE);
+        tag.connect();
+
+        assertArrayEquals(new byte[0], new Type2TagReader(tag).readNdef());
+    }
+
+    @Test
+    public void returnsNullForUnformattedTag() throws IOException {
+        MemoryTagTransport tag = new MemoryTagTransport(new byte[64], 253, true);
+        tag.connect();
+
+        assertNull(new Type2TagReader(tag).readNdef());
+    }
+
+    @Test
+    public void returnsNullWithoutNdefTlv() throws IOException {
+        byte[] memory = new byte[16 + DATA_SIZE];
+        memory[12] = (byte) Type2TagReader.CC_MAGIC;
+        memory[14] = (byte) (DATA_SIZE / 8);
+        memory[16] = (byte) 0xFE;
+        MemoryTagTransport tag = new MemoryTagTransport(memory, 253, true);
+        tag.connect();
+
+        assertNull(new Type2TagReader(tag).readNdef());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTlvLongerThanDataArea() throws IOException {
+        byte[] memory = new byte[16 + 48];
+        memory[12] = (byte) Type2TagReader.CC_MAGIC;
+        memory[14] = (byte) (48 / 8);
+        memory[16] = 0x03;
+        memory[17] = 60;
+        MemoryTagTransport tag = new MemoryTagTransport(memory, 253, true);
+        tag.connect();
+
+        new Type2TagReader(tag).readNdef();
+    }
+
+    @Test
+    public void readMessageDecodes() throws Exception {
+        byte[] message = textMessage(40);
+        MemoryTagTransport tag = MemoryTagTransport.type2(message, DATA_SIZE);
+        tag.connect();
+
+        List<Map<String, Object>> records = NdefDecoder.decodeRecords(new Type2TagReader(tag).readNdef());
+        assertEquals(1, records.size());
+        assertEquals("en", records.get(0).get("languageCode"));
+        assertTrue(((String) records.get(0).get("data")).startsWith("aaaa"));
+    }
+
+    /**
+     * @return a message of a single text record with a payload of the given
+     * size
+     */
+    static byte[] textMessage(int payloadSize) {
+        byte[] payload = new byte[payloadSize];
+        payload[0] = 0x02;
+        payload[1] = 'e';
+        payload[2] = 'n';
+        for (int i = 3; i < payload.length; i++) {
+            payload[i] = 'a';
+        }
+        boolean shortRecord = payload.length < 0x100;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xC0 | (shortRecord ? 0x10 : 0) | NdefDecoder.TNF_WELL_KNOWN);
+        out.write(1);
+        if (shortRecord) {
+            out.write(payload.length);
+        } else {
+            out.write(payload.length >>> 24);
+            out.write(payload.length >>> 16);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        }
+        out.write(NdefDecoder.RTD_TEXT);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+}
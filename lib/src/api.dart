@@ -1,80 +1,147 @@
 import 'dart:async';
+import 'dart:convert';
 import 'dart:core';
 import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
 
 import './exceptions.dart';
+import './ndef_codec.dart';
 
 class NFC {
   static MethodChannel _channel = MethodChannel("nfc_in_flutter");
   static const EventChannel _eventChannel =
       const EventChannel("nfc_in_flutter/tags");
+  static const EventChannel _provisioningChannel =
+      const EventChannel("nfc_in_flutter/provisioning");
+  static const EventChannel _adapterStateChannel =
+      const EventChannel("nfc_in_flutter/adapter_state");
 
   static Stream<dynamic>? _tagStream;
+  static int _nextSubscription = 1;
+  // Subscriptions to the tag stream and the ones that are paused. The
+  // platform only holds tags back while every subscription is paused.
+  static final Set<int> _subscriptions = {};
+  static final Set<int> _pausedSubscriptions = {};
+  static bool _eventsPaused = false;
 
   static Stream<dynamic> _createTagStream() {
-    return _eventChannel.receiveBroadcastStream().where((tag) {
+    return _eventChannel
+        .receiveBroadcastStream()
+        // Tags may arrive batched in a single list
+        .expand((event) => event is List ? event : [event])
+        .where((tag) {
+      // Tags sent in the compact frame wire format are always NDEF tags
+      if (tag is Uint8List) {
+        return true;
+      }
       // In the future when more tag types are supported, this must be changed.
       assert(tag is Map);
-      return tag["message_type"] == "ndef";
-    }).map<NFCMessage>((tag) {
+      return tag["message_type"] == "ndef" ||
+          tag["message_type"] == "ndef_stream";
+    }).map<Object>((tag) {
+      if (tag is Uint8List) {
+        return NDEFMessage._fromFrame(TagFrame.parse(tag));
+      }
       assert(tag is Map);
+      if (tag["message_type"] == "ndef_stream") {
+        return NDEFStreamEvent._fromMap(tag);
+      }
+      return NDEFMessage._fromMap(tag);
+    });
+  }
 
-      List<NDEFRecord> records = [];
-      for (var record in tag["records"]) {
-        NFCTypeNameFormat tnf;
-        switch (record["tnf"]) {
-          case "empty":
-            tnf = NFCTypeNameFormat.empty;
-            break;
-          case "well_known":
-            tnf = NFCTypeNameFormat.well_known;
-            break;
-          case "mime_media":
-            tnf = NFCTypeNameFormat.mime_media;
-            break;
-          case "absolute_uri":
-            tnf = NFCTypeNameFormat.absolute_uri;
-            break;
-          case "external_type":
-            tnf = NFCTypeNameFormat.external;
-            break;
-          case "unchanged":
-            tnf = NFCTypeNameFormat.unchanged;
-            break;
-          default:
-            tnf = NFCTypeNameFormat.unknown;
-        }
+  static int _addSubscription() {
+    final id = _nextSubscription++;
+    _subscriptions.add(id);
+    _updateEventsPaused();
+    return id;
+  }
 
-        records.add(NDEFRecord._internal(
-          record["id"],
-          record["payload"],
-          record["type"],
-          tnf,
-          record["data"],
-          record["languageCode"],
-          record["rawPayload"],
-        ));
-      }
+  static void _removeSubscription(int id) {
+    if (!_subscriptions.remove(id)) {
+      return;
+    }
+    _pausedSubscriptions.remove(id);
+    _channel.invokeMethod("removeTagFilter", {"subscription": id});
+    _updateEventsPaused();
+  }
 
-      return NDEFMessage._internal(tag["id"], tag["type"], records);
-    });
+  static void _setSubscriptionPaused(int id, bool paused) {
+    if (paused) {
+      _pausedSubscriptions.add(id);
+    } else {
+      _pausedSubscriptions.remove(id);
+    }
+    _updateEventsPaused();
+  }
+
+  static void _updateEventsPaused() {
+    final paused = _subscriptions.isNotEmpty &&
+        _pausedSubscriptions.length == _subscriptions.length;
+    if (paused != _eventsPaused) {
+      _eventsPaused = paused;
+      _channel.invokeMethod(paused ? "pauseEvents" : "resumeEvents");
+    }
   }
 
-  static void _startReadingNDEF(
-      bool once, String alertMessage, NFCReaderMode readerMode) {
+  /// _readingOptions returns the reading options sent to the platform. The
+  /// options apply to every stream reading at the same time.
+  static Map<String, dynamic> _readingOptions(
+      {bool compactFrames = false,
+      bool lazyDecoding = false,
+      int maxBatchSize = 1,
+      Duration maxBatchLatency = Duration.zero,
+      Duration deduplicationTTL = Duration.zero,
+      bool deduplicateByContent = false,
+      bool fastType2Reads = false,
+      int streamChunkSize = 0,
+      Set<NDEFRecordDecoder>? decoders,
+      int maxQueuedEvents = 0,
+      NFCQueuePolicy queuePolicy = NFCQueuePolicy.dropOldest,
+      int decodeCacheSize = 0}) {
+    return {
+      "wire_format": compactFrames ? "frame" : "map",
+      "lazy_decoding": lazyDecoding,
+      "max_batch_size": maxBatchSize,
+      "max_batch_latency_ms": maxBatchLatency.inMilliseconds,
+      "dedup_ttl_ms": deduplicationTTL.inMilliseconds,
+      "dedup_by_content": deduplicateByContent,
+      "fast_type2_reads": fastType2Reads,
+      "stream_chunk_size": streamChunkSize,
+      "decoders": decoders?.map((decoder) => _decoderNames[decoder]).toList(),
+      "queue_capacity": maxQueuedEvents,
+      "queue_policy": _queuePolicyNames[queuePolicy],
+      "decode_cache_bytes": decodeCacheSize,
+    };
+  }
+
+  /// _startReadingNDEF starts reading for the stream [subscription]. Streams
+  /// that don't give [options] read with the options already in use.
+  static Future<void> _startReadingNDEF(
+      bool once, String alertMessage, NFCReaderMode readerMode,
+      {Map<String, dynamic>? options,
+      int? subscription,
+      NDEFTagFilter? filter}) {
     // Start reading
     Map arguments = {
       "scan_once": once,
       "alert_message": alertMessage,
       "reader_mode": readerMode.name,
+      "options": options,
+      "subscription": subscription,
+      "filter": filter?._toMap(),
     }..addAll(readerMode._options);
-    _channel.invokeMethod("startNDEFReading", arguments);
+    return _channel.invokeMethod("startNDEFReading", arguments);
   }
 
   /// readNDEF starts listening for NDEF formatted tags. Any non-NDEF formatted
   /// tags will be filtered out.
+  ///
+  /// The Android only options apply to every stream reading at the same time.
+  /// A stream started with other options than a stream already reading gets
+  /// a [NFCConflictingOptionsException]. Streams from [writeNDEF] read with
+  /// the options in use.
   static Stream<NDEFMessage> readNDEF({
     /// once will stop reading after the first tag has been read.
     bool once = false,
@@ -92,13 +159,105 @@ class NFC {
     ///
     /// This is ignored on iOS as it only has one reading mode.
     NFCReaderMode readerMode = const NFCNormalReaderMode(),
+
+    /// compactFrames makes the platform send each tag as a single binary
+    /// frame instead of a map. Records are then decoded lazily when their
+    /// properties are accessed, which reduces the cost of every scan.
+    ///
+    /// Android only
+    bool compactFrames = false,
+
+    /// lazyDecoding makes the platform send only the raw payload of each
+    /// record. The payload, data and languageCode properties are decoded
+    /// from it when they are first accessed, so large binary records are not
+    /// converted to strings unless they are read.
+    ///
+    /// Android only
+    bool lazyDecoding = false,
+
+    /// maxBatchSize is the maximum number of tags the platform may deliver
+    /// in a single channel message. Batching reduces the per-tag overhead
+    /// when many tags are scanned in quick succession. 1 disables batching.
+    ///
+    /// Android only
+    int maxBatchSize = 1,
+
+    /// maxBatchLatency is how long a tag may be held back while waiting for
+    /// more tags to fill its batch.
+    ///
+    /// Android only
+    Duration maxBatchLatency = Duration.zero,
+
+    /// deduplicationTTL makes the platform ignore tags that have been read
+    /// within the given duration, before they are connected to or decoded.
+    /// Each time a tag is seen its duration starts over, so a tag left near
+    /// the reader is only read once. Duration.zero disables deduplication.
+    ///
+    /// Android only
+    Duration deduplicationTTL = Duration.zero,
+
+    /// deduplicateByContent makes deduplication let a tag through if its
+    /// content has changed since it was last read.
+    ///
+    /// Android only
+    bool deduplicateByContent = false,
+
+    /// fastType2Reads makes the platform read NFC Forum Type 2 tags, such as
+    /// NTAG and MIFARE Ultralight, with bulk FAST_READ commands instead of
+    /// one command per 16 bytes. Tags that don't support FAST_READ are read
+    /// normally.
+    ///
+    /// Android only
+    bool fastType2Reads = false,
+
+    /// decoders selects how records are decoded by the platform. Records
+    /// that none of the decoders handle are delivered with only their raw
+    /// payload, which is decoded when it is first accessed. By default every
+    /// record is decoded.
+    ///
+    /// Android only
+    Set<NDEFRecordDecoder>? decoders,
+
+    /// maxQueuedEvents is the maximum number of tags the platform holds
+    /// while they wait to be delivered, for example while every stream is
+    /// paused. 0 means no limit. [queuePolicy] decides what happens to tags
+    /// that don't fit.
+    ///
+    /// Android only
+    int maxQueuedEvents = 0,
+
+    /// queuePolicy is what happens when more than [maxQueuedEvents] tags are
+    /// waiting to be delivered.
+    ///
+    /// Android only
+    NFCQueuePolicy queuePolicy = NFCQueuePolicy.dropOldest,
+
+    /// filter makes the stream only receive tags matching it. Filters are
+    /// evaluated by the platform on the raw tag before it is decoded, so tags
+    /// no stream wants are never decoded or sent to Dart.
+    ///
+    /// Android only
+    NDEFTagFilter? filter,
+
+    /// decodeCacheSize enables a cache of decoded messages of up to this
+    /// many bytes. Tags with a message that has been read before, on a tag of
+    /// the same type, then skip decoding; only their id and writability are
+    /// filled in. Hits and misses are counted in [NFC.getStats].
+    ///
+    /// Android only
+    int decodeCacheSize = 0,
   }) {
     _tagStream ??= _createTagStream();
     // Create a StreamController to wrap the tag stream. Any errors will be
     // converted to their matching exception classes. The controller stream will
     // be closed if the errors are fatal.
     StreamController<NDEFMessage> controller = StreamController();
-    final stream = once ? _tagStream!.take(1) : _tagStream!;
+    final subscriptionId = _addSubscription();
+    // The platform delivers tags matching any stream's filter, so check
+    // this stream's own filter too
+    final messages = _tagStream!.where((message) =>
+        message is NDEFMessage && (filter == null || filter._matches(message)));
+    final stream = once ? messages.take(1) : messages;
     // Listen for tag reads.
     final subscription = stream.listen(
       (message) => controller.add(message),
@@ -120,24 +279,115 @@ class NFC {
     );
     controller.onCancel = () {
       subscription.cancel();
+      _removeSubscription(subscriptionId);
+    };
+    // Pausing only holds back this stream's tags. The platform holds tags
+    // back too once every stream is paused, instead of them being buffered
+    // in Dart.
+    controller.onPause = () {
+      subscription.pause();
+      _setSubscriptionPaused(subscriptionId, true);
+    };
+    controller.onResume = () {
+      subscription.resume();
+      _setSubscriptionPaused(subscriptionId, false);
     };
 
-    try {
-      _startReadingNDEF(
-        once,
-        alertMessage,
-        const NFCNormalReaderMode(),
-      );
-    } on PlatformException catch (err) {
-      if (err.code == "NFCMultipleReaderModes") {
-        throw NFCMultipleReaderModesException();
-      } else if (err.code == "SystemIsBusyError") {
-        throw NFCSystemIsBusyException(err.message);
-      }
-      throw err;
-    } catch (error) {
-      throw error;
-    }
+    _startReadingNDEF(
+      once,
+      alertMessage,
+      const NFCNormalReaderMode(),
+      options: _readingOptions(
+        compactFrames: compactFrames,
+        lazyDecoding: lazyDecoding,
+        maxBatchSize: maxBatchSize,
+        maxBatchLatency: maxBatchLatency,
+        deduplicationTTL: deduplicationTTL,
+        deduplicateByContent: deduplicateByContent,
+        fastType2Reads: fastType2Reads,
+        decoders: decoders,
+        maxQueuedEvents: maxQueuedEvents,
+        queuePolicy: queuePolicy,
+        decodeCacheSize: decodeCacheSize,
+      ),
+      subscription: subscriptionId,
+      filter: filter,
+    ).catchError((error) {
+      subscription.cancel();
+      _removeSubscription(subscriptionId);
+      controller.addError(_mapException(error));
+      controller.close();
+    });
+
+    return controller.stream;
+  }
+
+  /// readNDEFStream starts listening for NDEF formatted tags like [readNDEF],
+  /// but delivers each tag in pieces instead of as a single [NDEFMessage]:
+  /// a [NDEFStreamHeader], then a [NDEFStreamRecord] for every record
+  /// followed by its payload in [NDEFStreamChunk]s of at most [chunkSize]
+  /// bytes, and finally a [NDEFStreamEnd]. Tags holding large messages can
+  /// then be processed as they arrive, without every record being decoded
+  /// and delivered at once.
+  ///
+  /// Android only
+  static Stream<NDEFStreamEvent> readNDEFStream({
+    /// chunkSize is the maximum number of payload bytes in a single
+    /// [NDEFStreamChunk].
+    int chunkSize = 4096,
+
+    /// once will stop reading after the first tag has been read.
+    bool once = false,
+
+    /// readerMode specifies which mode the reader should use.
+    NFCReaderMode readerMode = const NFCNormalReaderMode(),
+  }) {
+    assert(chunkSize > 0);
+    _tagStream ??= _createTagStream();
+
+    StreamController<NDEFStreamEvent> controller = StreamController();
+    final subscriptionId = _addSubscription();
+    final subscription = _tagStream!
+        .where((event) => event is NDEFStreamEvent)
+        .cast<NDEFStreamEvent>()
+        .listen(
+      (event) {
+        controller.add(event);
+        if (once && event is NDEFStreamEnd) {
+          controller.close();
+        }
+      },
+      onError: (error) {
+        controller.addError(_mapException(error));
+        controller.close();
+      },
+      onDone: () async {
+        _tagStream = null;
+        await controller.close();
+      },
+    );
+    controller.onCancel = () {
+      subscription.cancel();
+      _removeSubscription(subscriptionId);
+    };
+    controller.onPause = () {
+      subscription.pause();
+      _setSubscriptionPaused(subscriptionId, true);
+    };
+    controller.onResume = () {
+      subscription.resume();
+      _setSubscriptionPaused(subscriptionId, false);
+    };
+
+    _startReadingNDEF(once, "", readerMode,
+            options: _readingOptions(streamChunkSize: chunkSize),
+            subscription: subscriptionId)
+        .catchError((error) {
+      subscription.cancel();
+      _removeSubscription(subscriptionId);
+      controller.addError(_mapException(error));
+      controller.close();
+    });
 
     return controller.stream;
   }
@@ -160,18 +410,27 @@ class NFC {
 
     /// readerMode specifies which mode the reader should use.
     NFCReaderMode readerMode = const NFCNormalReaderMode(),
+
+    /// skipIfIdentical skips writing to tags that already contain
+    /// [newMessage]. Skipped tags are still added to the stream.
+    ///
+    /// Android only
+    bool skipIfIdentical = false,
   }) {
     _tagStream ??= _createTagStream();
 
     StreamController<NDEFTag> controller = StreamController();
+    final subscriptionId = _addSubscription();
 
     int writes = 0;
-    final stream = _tagStream!.listen(
+    final stream =
+        _tagStream!.where((message) => message is NDEFMessage).listen(
       (msg) async {
         NDEFMessage message = msg;
         if (message.tag.writable) {
           try {
-            await message.tag.write(newMessage);
+            await message.tag
+                .write(newMessage, skipIfIdentical: skipIfIdentical);
           } catch (err) {
             controller.addError(err);
             controller.close();
@@ -200,26 +459,616 @@ class NFC {
     );
     controller.onCancel = () {
       stream.cancel();
+      _removeSubscription(subscriptionId);
     };
 
-    try {
-      _startReadingNDEF(once, message, readerMode);
-    } on PlatformException catch (err) {
-      if (err.code == "NFCMultipleReaderModes") {
-        throw NFCMultipleReaderModesException();
-      }
-      throw err;
-    }
+    // Writing reads with the options already in use
+    _startReadingNDEF(once, message, readerMode, subscription: subscriptionId)
+        .catchError((error) {
+      stream.cancel();
+      _removeSubscription(subscriptionId);
+      controller.addError(_mapException(error));
+      controller.close();
+    });
 
     return controller.stream;
   }
 
+  /// provisionNDEF writes [template] to every tag scanned while the returned
+  /// stream is listened to, without a round trip to Dart for each tag. The
+  /// template is encoded once when provisioning starts.
+  ///
+  /// Record payloads may contain substitution slots, which are filled in for
+  /// each tag:
+  ///
+  /// * `{{serial}}` is replaced by a counter, starting at [firstSerial] and
+  ///   increasing by one for each tag written successfully.
+  /// * `{{tag_id}}` is replaced by the tag's id in hex.
+  ///
+  /// Slots have a fixed width, which can be set like `{{serial:8}}`. Values
+  /// are padded with zeroes to fill it. By default serials are 6 digits and
+  /// tag ids 14 digits (7 byte ids).
+  ///
+  /// Provisioning stops when the stream subscription is cancelled.
+  ///
+  /// Android only
+  static Stream<NFCProvisioningResult> provisionNDEF(
+    NDEFMessage template, {
+    int firstSerial = 1,
+
+    /// noSounds tells the platform not to play any sounds when a tag has
+    /// been scanned.
+    bool noSounds = false,
+  }) {
+    late StreamController<NFCProvisioningResult> controller;
+    StreamSubscription? subscription;
+    controller = StreamController(
+      onListen: () {
+        subscription = _provisioningChannel.receiveBroadcastStream().listen(
+          (result) => controller.add(NFCProvisioningResult._fromMap(result)),
+          onError: (error) => controller.addError(_mapException(error)),
+        );
+        _channel.invokeMethod("startProvisioning", {
+          "message": template._toMap(),
+          "first_serial": firstSerial,
+          "no_platform_sounds": noSounds,
+        }).catchError((error) {
+          if (error is PlatformException &&
+              error.code == "NFCMultipleReaderModes") {
+            error = NFCMultipleReaderModesException();
+          }
+          controller.addError(error);
+          controller.close();
+        });
+      },
+      onCancel: () async {
+        await subscription?.cancel();
+        await _channel.invokeMethod("stopProvisioning");
+      },
+    );
+    return controller.stream;
+  }
+
+  /// enableJournal starts recording every scan, including the tag id, the
+  /// raw NDEF message and read errors, in a journal kept in the app's files
+  /// directory. Scans are recorded by the platform as they are read, so the
+  /// journal is complete even if Dart is busy or the app is killed.
+  ///
+  /// The journal is stored in segments of [segmentSize] bytes. When more
+  /// than [maxSegments] segments exist, the oldest is deleted. Records from
+  /// earlier runs are kept.
+  ///
+  /// Android only
+  static Future<void> enableJournal({
+    int segmentSize = 1 << 20,
+    int maxSegments = 8,
+  }) async {
+    await _channel.invokeMethod("enableJournal", {
+      "segment_size": segmentSize,
+      "max_segments": maxSegments,
+    });
+  }
+
+  /// disableJournal stops recording scans. The journal is kept on disk.
+  ///
+  /// Android only
+  static Future<void> disableJournal() async {
+    await _channel.invokeMethod("disableJournal");
+  }
+
+  /// queryJournal returns the journal entries recorded between [from] and
+  /// [to], oldest first, optionally only those of the tag with [tagId].
+  ///
+  /// Android only
+  static Future<List<NFCJournalEntry>> queryJournal({
+    DateTime? from,
+    DateTime? to,
+    String? tagId,
+    int limit = 1000,
+  }) async {
+    final entries = await _channel.invokeMethod(
+        "queryJournal", _journalQuery(from, to, tagId, limit));
+    assert(entries is List);
+    return (entries as List)
+        .map((entry) => NFCJournalEntry._fromMap(entry))
+        .toList();
+  }
+
+  /// replayJournal returns the tags read between [from] and [to] as they
+  /// were read, oldest first. Errors are left out.
+  ///
+  /// Android only
+  static Future<List<NDEFMessage>> replayJournal({
+    DateTime? from,
+    DateTime? to,
+    String? tagId,
+    int limit = 1000,
+  }) async {
+    final frames = await _channel.invokeMethod(
+        "replayJournal", _journalQuery(from, to, tagId, limit));
+    assert(frames is List);
+    return (frames as List)
+        .map((frame) => NDEFMessage._fromFrame(TagFrame.parse(frame)))
+        .toList();
+  }
+
+  static Map<String, dynamic> _journalQuery(
+      DateTime? from, DateTime? to, String? tagId, int limit) {
+    return {
+      "from_ms": from?.millisecondsSinceEpoch,
+      "to_ms": to?.millisecondsSinceEpoch,
+      "id": tagId,
+      "limit": limit,
+    };
+  }
+
+  /// suppressedReadCount returns how many tag reads have been ignored by
+  /// deduplication (see the deduplicationTTL argument of [readNDEF]).
+  ///
+  /// Android only
+  static Future<int> get suppressedReadCount async {
+    final count = await _channel.invokeMethod("getSuppressedReadCount");
+    assert(count is int);
+    return count as int;
+  }
+
+  /// getStats returns latency and throughput statistics collected by the
+  /// platform since the plugin was loaded or [resetStats] was called.
+  ///
+  /// Android only
+  static Future<NFCStats> getStats() async {
+    final stats = await _channel.invokeMethod("getStats");
+    assert(stats is Map);
+    return NFCStats._fromMap(stats as Map);
+  }
+
+  /// resetStats clears the statistics returned by [getStats].
+  ///
+  /// Android only
+  static Future<void> resetStats() async {
+    await _channel.invokeMethod("resetStats");
+  }
+
   /// isNDEFSupported checks if the device supports reading NDEF tags
   static Future<bool> get isNDEFSupported async {
     final supported = await _channel.invokeMethod("readNDEFSupported");
     assert(supported is bool);
     return supported as bool;
   }
+
+  /// adapterState emits the state of the device's NFC adapter, starting with
+  /// the current state, every time the user turns NFC on or off. A reader
+  /// started with [readNDEF] is automatically re-armed when NFC is turned
+  /// back on.
+  ///
+  /// Android only
+  static Stream<NFCAdapterState> get adapterState {
+    return _adapterStateChannel
+        .receiveBroadcastStream()
+        .map((state) => _adapterStates[state] ?? NFCAdapterState.off);
+  }
+}
+
+/// NFCAdapterState is the state of the NFC adapter, see [NFC.adapterState].
+enum NFCAdapterState {
+  on,
+  off,
+  turningOn,
+  turningOff,
+
+  /// unsupported is emitted once if the device doesn't have NFC.
+  unsupported,
+}
+
+const _adapterStates = {
+  "on": NFCAdapterState.on,
+  "off": NFCAdapterState.off,
+  "turning_on": NFCAdapterState.turningOn,
+  "turning_off": NFCAdapterState.turningOff,
+  "unsupported": NFCAdapterState.unsupported,
+};
+
+/// NFCProvisioningResult is the outcome of provisioning a single tag with
+/// [NFC.provisionNDEF].
+class NFCProvisioningResult {
+  /// id is the tag's id.
+  final String id;
+
+  /// serial is the serial the tag was written with. It is only used by a
+  /// following tag if this one failed.
+  final int serial;
+
+  /// written is true if the template was written to the tag.
+  final bool written;
+
+  /// error is the error code of a failed write, or null.
+  final String? error;
+
+  /// tagsPerMinute is the provisioning throughput since provisioning
+  /// started, counting successfully written tags.
+  final double tagsPerMinute;
+
+  NFCProvisioningResult._fromMap(Map map)
+      : id = map["id"],
+        serial = map["serial"],
+        written = map["written"],
+        error = map["error"],
+        tagsPerMinute = map["tags_per_minute"];
+}
+
+/// NFCJournalEntry is a scan recorded in the journal, see
+/// [NFC.enableJournal].
+class NFCJournalEntry {
+  final DateTime timestamp;
+  final String tagId;
+
+  /// tagType is the tag's type. It is null for errors.
+  final String? tagType;
+  final bool writable;
+
+  /// ndef is the raw NDEF message read from the tag. It is null for errors
+  /// and empty for empty tags.
+  final Uint8List? ndef;
+
+  /// error is the error code of a failed read, or null.
+  final String? error;
+  final String? errorMessage;
+
+  NFCJournalEntry._fromMap(Map map)
+      : timestamp = DateTime.fromMillisecondsSinceEpoch(map["timestamp"]),
+        tagId = map["id"],
+        tagType = map["type"],
+        writable = map["writable"] ?? false,
+        ndef = map["ndef"],
+        error = map["error"],
+        errorMessage = map["message"];
+}
+
+/// NFCStats holds the statistics returned by [NFC.getStats].
+class NFCStats {
+  /// tags is the number of tags read.
+  final int tags;
+
+  /// errors is the number of read errors sent to the tag stream.
+  final int errors;
+
+  /// suppressed is the number of reads ignored by deduplication.
+  final int suppressed;
+
+  /// filtered is the number of tags no stream's filter matched.
+  final int filtered;
+
+  final int bytesRead;
+  final int bytesWritten;
+
+  /// queueDepth is the number of events waiting to be delivered, and
+  /// maxQueueDepth the most that have been waiting at once.
+  final int queueDepth;
+  final int maxQueueDepth;
+
+  /// droppedEvents is the number of events dropped or coalesced because
+  /// the event queue was full (see [NFCQueuePolicy]).
+  final int droppedEvents;
+
+  /// readerState is the reader's current state: `idle`, `reading`,
+  /// `writing` (reading with writes in flight) or `draining` (stopped with
+  /// writes in flight). writesInFlight is the number of writes queued or
+  /// being written.
+  final String readerState;
+  final int writesInFlight;
+
+  /// decodeCacheHits and decodeCacheMisses count the tags whose message was
+  /// and wasn't found in the decode cache, see the decodeCacheSize argument
+  /// of [NFC.readNDEF]. decodeCacheEvictions counts the messages evicted to
+  /// stay under its size.
+  final int decodeCacheHits;
+  final int decodeCacheMisses;
+  final int decodeCacheEvictions;
+
+  /// phases maps a phase name to its latency statistics. The phases are
+  /// `connect`, `read`, `close`, `decode`, `post` (waiting for the main
+  /// thread), `deliver` (sending to Dart), `write` and `format`.
+  final Map<String, NFCPhaseStats> phases;
+
+  NFCStats._fromMap(Map map)
+      : tags = map["tags"],
+        errors = map["errors"],
+        suppressed = map["suppressed"],
+        filtered = map["filtered"],
+        bytesRead = map["bytes_read"],
+        bytesWritten = map["bytes_written"],
+        queueDepth = map["queue_depth"],
+        maxQueueDepth = map["max_queue_depth"],
+        droppedEvents = map["dropped"],
+        readerState = map["reader_state"],
+        writesInFlight = map["writes_in_flight"],
+        decodeCacheHits = map["decode_cache_hits"] ?? 0,
+        decodeCacheMisses = map["decode_cache_misses"] ?? 0,
+        decodeCacheEvictions = map["decode_cache_evictions"] ?? 0,
+        phases = (map["phases"] as Map).map((name, phase) =>
+            MapEntry(name as String, NFCPhaseStats._fromMap(phase)));
+}
+
+/// NFCPhaseStats holds the latency statistics of a single phase. Percentiles
+/// are approximate: they are the upper bound of a power-of-two histogram
+/// bucket, so they may be up to twice the real value.
+class NFCPhaseStats {
+  final int count;
+  final Duration mean;
+  final Duration max;
+  final Duration p50;
+  final Duration p90;
+  final Duration p99;
+
+  NFCPhaseStats._fromMap(Map map)
+      : count = map["count"],
+        mean = Duration(microseconds: map["mean_us"]),
+        max = Duration(microseconds: map["max_us"]),
+        p50 = Duration(microseconds: map["p50_us"]),
+        p90 = Duration(microseconds: map["p90_us"]),
+        p99 = Duration(microseconds: map["p99_us"]);
+}
+
+/// NDEFTagFilter selects the tags a stream receives, see the filter argument
+/// of [NFC.readNDEF].
+///
+/// A tag matches if its id matches [idPrefix] and at least one of its
+/// records matches every record criterion that is set: [tnf], [type],
+/// [mimeType], [minPayloadSize] and [maxPayloadSize]. Types may end in `*`
+/// to match any type starting with what comes before it.
+class NDEFTagFilter {
+  final NFCTypeNameFormat? tnf;
+  final String? type;
+
+  /// mimeType matches records with the mime_media TNF and this type.
+  final String? mimeType;
+
+  /// idPrefix is the hex encoded start of the tag id.
+  final String? idPrefix;
+
+  /// idMask is a hex encoded mask, as long as [idPrefix], of the id bits
+  /// that must match it.
+  final String? idMask;
+  final int? minPayloadSize;
+  final int? maxPayloadSize;
+
+  const NDEFTagFilter({
+    this.tnf,
+    this.type,
+    this.mimeType,
+    this.idPrefix,
+    this.idMask,
+    this.minPayloadSize,
+    this.maxPayloadSize,
+  }) : assert(type == null || mimeType == null,
+            "a filter can't have both a type and a MIME type");
+
+  bool get _hasRecordCriteria =>
+      tnf != null ||
+      type != null ||
+      mimeType != null ||
+      minPayloadSize != null ||
+      maxPayloadSize != null;
+
+  bool _matches(NDEFMessage message) {
+    if (idPrefix != null && !_idMatches(message.id ?? "")) {
+      return false;
+    }
+    if (!_hasRecordCriteria) {
+      return true;
+    }
+    return message.records.any(_recordMatches);
+  }
+
+  bool _idMatches(String id) {
+    final prefix = hexDecode(idPrefix!);
+    final mask = idMask != null ? hexDecode(idMask!) : null;
+    final tagId = hexDecode(id);
+    if (tagId.length < prefix.length) {
+      return false;
+    }
+    for (var i = 0; i < prefix.length; i++) {
+      final m = mask != null ? mask[i] : 0xFF;
+      if (tagId[i] & m != prefix[i] & m) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  bool _recordMatches(NDEFRecord record) {
+    if (tnf != null && record.tnf != tnf) {
+      return false;
+    }
+    if (mimeType != null &&
+        (record.tnf != NFCTypeNameFormat.mime_media ||
+            !_typeMatches(mimeType!, record.type))) {
+      return false;
+    }
+    if (type != null && !_typeMatches(type!, record.type)) {
+      return false;
+    }
+    final size = record.rawPayload?.length ?? 0;
+    return size >= (minPayloadSize ?? 0) &&
+        (maxPayloadSize == null || size <= maxPayloadSize!);
+  }
+
+  static bool _typeMatches(String pattern, String type) {
+    return pattern.endsWith("*")
+        ? type.startsWith(pattern.substring(0, pattern.length - 1))
+        : type == pattern;
+  }
+
+  Map<String, dynamic> _toMap() {
+    return {
+      "tnf": tnf != null ? _tnfNames[tnf] : null,
+      "type": type,
+      "mime_type": mimeType,
+      "id_prefix": idPrefix,
+      "id_mask": idMask,
+      "min_payload_size": minPayloadSize,
+      "max_payload_size": maxPayloadSize,
+    };
+  }
+}
+
+const _tnfNames = {
+  NFCTypeNameFormat.empty: "empty",
+  NFCTypeNameFormat.well_known: "well_known",
+  NFCTypeNameFormat.mime_media: "mime_media",
+  NFCTypeNameFormat.absolute_uri: "absolute_uri",
+  NFCTypeNameFormat.external: "external_type",
+  NFCTypeNameFormat.unknown: "unknown",
+  NFCTypeNameFormat.unchanged: "unchanged",
+};
+
+/// NFCQueuePolicy decides what happens to tags that are read while the
+/// platform's event queue is full, see the maxQueuedEvents argument of
+/// [NFC.readNDEF].
+enum NFCQueuePolicy {
+  /// dropOldest drops the oldest waiting tag to make room.
+  dropOldest,
+
+  /// dropNewest drops the tag that was just read.
+  dropNewest,
+
+  /// coalesce replaces a waiting tag with a newer read of the same tag, and
+  /// otherwise drops the oldest waiting tag.
+  coalesce,
+
+  /// pauseReader stops reading tags until the waiting tags have been
+  /// delivered. Tags read before the reader has stopped are dropped.
+  pauseReader,
+}
+
+const _queuePolicyNames = {
+  NFCQueuePolicy.dropOldest: "drop_oldest",
+  NFCQueuePolicy.dropNewest: "drop_newest",
+  NFCQueuePolicy.coalesce: "coalesce",
+  NFCQueuePolicy.pauseReader: "pause_reader",
+};
+
+/// NDEFRecordDecoder is a record decoder built into the platform, see the
+/// decoders argument of [NFC.readNDEF].
+enum NDEFRecordDecoder {
+  /// text decodes well known text records.
+  text,
+
+  /// uri decodes well known URI records.
+  uri,
+
+  /// smartPoster decodes the message nested in well known smart poster
+  /// records into [NDEFRecord.records], using the same decoders.
+  smartPoster,
+
+  /// vendorMime decodes `application/vnd.*` MIME records whose type ends
+  /// in `+json`, `+xml` or `+text` as text. Other vendor records are left
+  /// raw.
+  vendorMime,
+
+  /// externalType decodes external type records as text.
+  externalType,
+
+  /// raw passes records through with only their raw payload. This is what
+  /// happens to any record no other decoder handles.
+  raw,
+}
+
+const _decoderNames = {
+  NDEFRecordDecoder.text: "text",
+  NDEFRecordDecoder.uri: "uri",
+  NDEFRecordDecoder.smartPoster: "smart_poster",
+  NDEFRecordDecoder.vendorMime: "vendor_mime",
+  NDEFRecordDecoder.externalType: "external_type",
+  NDEFRecordDecoder.raw: "raw",
+};
+
+/// NDEFStreamEvent is a piece of a tag read with [NFC.readNDEFStream].
+abstract class NDEFStreamEvent {
+  /// tagId is the id of the tag the event belongs to.
+  final String tagId;
+
+  /// bytesReceived is the number of payload bytes received for the tag,
+  /// including the ones in this event.
+  final int bytesReceived;
+
+  /// totalBytes is the combined payload size of the tag's records.
+  final int totalBytes;
+
+  NDEFStreamEvent._fromMapBase(Map map)
+      : tagId = map["id"],
+        bytesReceived = map["bytes_sent"],
+        totalBytes = map["total_bytes"];
+
+  factory NDEFStreamEvent._fromMap(Map map) {
+    switch (map["event"]) {
+      case "header":
+        return NDEFStreamHeader._fromMap(map);
+      case "record":
+        return NDEFStreamRecord._fromMap(map);
+      case "chunk":
+        return NDEFStreamChunk._fromMap(map);
+      default:
+        assert(map["event"] == "end");
+        return NDEFStreamEnd._fromMap(map);
+    }
+  }
+
+  /// progress is the fraction of the tag's payload received, from 0 to 1.
+  double get progress => totalBytes == 0 ? 1 : bytesReceived / totalBytes;
+}
+
+/// NDEFStreamHeader is the first event of a streamed tag.
+class NDEFStreamHeader extends NDEFStreamEvent {
+  final String type;
+  final bool writable;
+  final int recordCount;
+
+  NDEFStreamHeader._fromMap(Map map)
+      : type = map["type"],
+        writable = map["writable"],
+        recordCount = map["record_count"],
+        super._fromMapBase(map);
+}
+
+/// NDEFStreamRecord starts a record of a streamed tag. Its payload follows
+/// in [NDEFStreamChunk]s.
+class NDEFStreamRecord extends NDEFStreamEvent {
+  /// index is the record's position in the message.
+  final int index;
+  final NFCTypeNameFormat tnf;
+  final String type;
+  final String id;
+  final int payloadLength;
+
+  NDEFStreamRecord._fromMap(Map map)
+      : index = map["index"],
+        tnf = _tnfFromName(map["tnf"]),
+        type = map["type"],
+        id = map["record_id"],
+        payloadLength = map["payload_length"],
+        super._fromMapBase(map);
+}
+
+/// NDEFStreamChunk is a part of a record's raw payload.
+class NDEFStreamChunk extends NDEFStreamEvent {
+  /// index is the position of the record the chunk belongs to.
+  final int index;
+
+  /// offset is the position of the chunk in the record's payload.
+  final int offset;
+  final Uint8List data;
+
+  NDEFStreamChunk._fromMap(Map map)
+      : index = map["index"],
+        offset = map["offset"],
+        data = map["data"],
+        super._fromMapBase(map);
+}
+
+/// NDEFStreamEnd is the last event of a streamed tag.
+class NDEFStreamEnd extends NDEFStreamEvent {
+  NDEFStreamEnd._fromMap(Map map) : super._fromMapBase(map);
 }
 
 /// NFCReaderMode is an interface for different reading modes
@@ -281,15 +1130,64 @@ abstract class NFCTag {
 }
 
 class NDEFMessage implements NFCMessage {
-  final String? id;
-  final String? type;
-  final List<NDEFRecord> records;
+  String? _id;
+  String? _type;
+  List<NDEFRecord>? _records;
+
+  // _frame is set when the message was received as a compact frame. The id,
+  // type and records are then decoded from it when first accessed.
+  final TagFrame? _frame;
 
-  NDEFMessage.withRecords(this.records, {this.id}) : type = null;
+  NDEFMessage.withRecords(List<NDEFRecord> records, {String? id})
+      : _id = id,
+        _records = records,
+        _frame = null;
 
-  NDEFMessage(this.type, this.records) : id = null;
+  NDEFMessage(String? type, List<NDEFRecord> records)
+      : _type = type,
+        _records = records,
+        _frame = null;
 
-  NDEFMessage._internal(this.id, this.type, this.records);
+  NDEFMessage._internal(this._id, this._type, this._records) : _frame = null;
+
+  NDEFMessage._fromFrame(TagFrame frame) : _frame = frame;
+
+  factory NDEFMessage._fromMap(Map tag) {
+    List<NDEFRecord> records = [];
+    for (var record in tag["records"]) {
+      records.add(NDEFRecord._fromMap(record));
+    }
+
+    return NDEFMessage._internal(tag["id"], tag["type"], records);
+  }
+
+  String? get id {
+    final frame = _frame;
+    if (_id == null && frame != null) {
+      _id = hexEncode(frame.tagId);
+    }
+    return _id;
+  }
+
+  String? get type {
+    final frame = _frame;
+    if (_type == null && frame != null) {
+      _type = frame.tagType;
+    }
+    return _type;
+  }
+
+  List<NDEFRecord> get records {
+    final frame = _frame;
+    if (_records == null && frame != null) {
+      _records = List<NDEFRecord>.generate(
+        frame.recordCount,
+        (i) => NDEFRecord._fromFrame(frame, i),
+        growable: false,
+      );
+    }
+    return _records!;
+  }
 
   // payload returns the payload of the first non-empty record. If all records
   // are empty it will return null.
@@ -352,99 +1250,197 @@ enum NFCTypeNameFormat {
 
 class NDEFRecord {
   final String? id;
-  final String payload;
   final String type;
-  final String data;
   final NFCTypeNameFormat tnf;
 
+  /// rawPayload contains the raw payload provided by the reader.
+  /// It will only be set when reading NDEF tags. Otherwise it will be null.
+  final Uint8List? rawPayload;
+
+  String? _payload;
+  String? _data;
+  String? _languageCode;
+  List<NDEFRecord>? _records;
+
+  // _decoded is false while payload, data and languageCode have yet to be
+  // decoded from rawPayload. Records read with lazy decoding or compact
+  // frames are decoded when one of them is first accessed, which throws a
+  // [NDEFBadFormatException] for records the platform would have rejected
+  // when decoding eagerly.
+  bool _decoded;
+
+  String get payload {
+    _decodeRawPayload();
+    return _payload!;
+  }
+
+  String get data {
+    _decodeRawPayload();
+    return _data!;
+  }
+
   /// languageCode will be the language code of a well known text record. If the
   /// record is not created with the well known TNF and Text RTD, this will be
   /// null.
-  final String? languageCode;
+  String? get languageCode {
+    _decodeRawPayload();
+    return _languageCode;
+  }
 
-  /// rawPayload contains the raw payload provided by the reader.
-  /// It will only be set when reading NDEF tags. Otherwise it will be null.
-  final Uint8List? rawPayload;
+  /// records are the records of the message nested in a smart poster. They
+  /// are only set when the smart poster decoder was used while reading (see
+  /// [NDEFRecordDecoder.smartPoster]).
+  List<NDEFRecord>? get records => _records;
+
+  void _decodeRawPayload() {
+    if (_decoded) {
+      return;
+    }
+    final DecodedPayload decoded;
+    try {
+      decoded = decodePayload(
+          tnf == NFCTypeNameFormat.well_known, type, rawPayload!);
+    } on FormatException catch (e) {
+      throw NDEFBadFormatException(e.message);
+    }
+    _decoded = true;
+    _payload = decoded.payload;
+    _data = decoded.data;
+    _languageCode = decoded.languageCode;
+  }
 
   NDEFRecord.empty()
       : id = null,
         type = "",
-        payload = "",
-        data = "",
+        _payload = "",
+        _data = "",
         tnf = NFCTypeNameFormat.empty,
-        languageCode = null,
-        rawPayload = null;
+        _languageCode = null,
+        rawPayload = null,
+        _decoded = true;
 
   NDEFRecord.plain(String data)
       : id = null,
         type = "text/plain",
-        payload = data,
-        this.data = data,
+        _payload = data,
+        _data = data,
         tnf = NFCTypeNameFormat.mime_media,
-        languageCode = null,
-        rawPayload = null;
+        _languageCode = null,
+        rawPayload = null,
+        _decoded = true;
 
   NDEFRecord.type(this.type, String payload)
       : id = null,
-        this.payload = payload,
-        data = payload,
+        _payload = payload,
+        _data = payload,
         tnf = NFCTypeNameFormat.mime_media,
-        languageCode = null,
-        rawPayload = null;
+        _languageCode = null,
+        rawPayload = null,
+        _decoded = true;
 
   NDEFRecord.text(String message, {languageCode = "en"})
       : id = null,
-        data = message,
-        payload = message,
+        _data = message,
+        _payload = message,
         type = "T",
         tnf = NFCTypeNameFormat.well_known,
-        this.languageCode = languageCode,
-        rawPayload = null;
+        _languageCode = languageCode,
+        rawPayload = null,
+        _decoded = true;
 
   NDEFRecord.uri(Uri uri)
       : id = null,
-        data = uri.toString(),
-        payload = uri.toString(),
+        _data = uri.toString(),
+        _payload = uri.toString(),
         type = "U",
         tnf = NFCTypeNameFormat.well_known,
-        languageCode = null,
-        rawPayload = null;
+        _languageCode = null,
+        rawPayload = null,
+        _decoded = true;
 
   NDEFRecord.absoluteUri(Uri uri)
       : id = null,
-        data = uri.toString(),
-        payload = uri.toString(),
+        _data = uri.toString(),
+        _payload = uri.toString(),
         type = "",
         tnf = NFCTypeNameFormat.absolute_uri,
-        languageCode = null,
-        rawPayload = null;
+        _languageCode = null,
+        rawPayload = null,
+        _decoded = true;
 
   NDEFRecord.external(this.type, String payload)
       : id = null,
-        data = payload,
-        this.payload = payload,
+        _data = payload,
+        _payload = payload,
         tnf = NFCTypeNameFormat.external,
-        languageCode = null,
-        rawPayload = null;
+        _languageCode = null,
+        rawPayload = null,
+        _decoded = true;
 
   NDEFRecord.custom({
     this.id,
-    this.payload = "",
+    String payload = "",
     this.type = "",
     this.tnf = NFCTypeNameFormat.unknown,
-    this.languageCode,
-  })  : data = payload,
-        rawPayload = null;
+    String? languageCode,
+  })  : _payload = payload,
+        _data = payload,
+        _languageCode = languageCode,
+        rawPayload = null,
+        _decoded = true;
 
   NDEFRecord._internal(
     this.id,
-    this.payload,
+    String payload,
     this.type,
     this.tnf,
-    this.data,
-    this.languageCode,
+    String data,
+    String? languageCode,
     this.rawPayload,
-  );
+  )   : _payload = payload,
+        _data = data,
+        _languageCode = languageCode,
+        _decoded = true;
+
+  NDEFRecord._lazy(this.id, this.type, this.tnf, Uint8List this.rawPayload)
+      : _decoded = false;
+
+  factory NDEFRecord._fromMap(Map record) {
+    NDEFRecord result;
+    // Records read with lazy decoding, or whose decoder left the payload
+    // undecoded, only contain the raw payload
+    if (record["payload"] == null && record["rawPayload"] != null) {
+      result = NDEFRecord._lazy(
+        record["id"],
+        record["type"],
+        _tnfFromName(record["tnf"]),
+        record["rawPayload"],
+      );
+    } else {
+      result = NDEFRecord._internal(
+        record["id"],
+        record["payload"],
+        record["type"],
+        _tnfFromName(record["tnf"]),
+        record["data"],
+        record["languageCode"],
+        record["rawPayload"],
+      );
+    }
+    if (record["records"] != null) {
+      result._records = [
+        for (var nested in record["records"]) NDEFRecord._fromMap(nested)
+      ];
+    }
+    return result;
+  }
+
+  NDEFRecord._fromFrame(TagFrame frame, int index)
+      : id = utf8.decode(frame.id(index)),
+        type = utf8.decode(frame.type(index)),
+        tnf = _tnfValues[frame.tnf(index) & 0x07],
+        rawPayload = frame.payload(index),
+        _decoded = false;
 
   Map<String, dynamic> _toMap() {
     String tnf;
@@ -481,22 +1477,118 @@ class NDEFRecord {
   }
 }
 
+// _tnfValues is indexed by the 3-bit TNF field of a record header.
+const List<NFCTypeNameFormat> _tnfValues = [
+  NFCTypeNameFormat.empty,
+  NFCTypeNameFormat.well_known,
+  NFCTypeNameFormat.mime_media,
+  NFCTypeNameFormat.absolute_uri,
+  NFCTypeNameFormat.external,
+  NFCTypeNameFormat.unknown,
+  NFCTypeNameFormat.unchanged,
+  NFCTypeNameFormat.unknown,
+];
+
+NFCTypeNameFormat _tnfFromName(String? name) {
+  switch (name) {
+    case "empty":
+      return NFCTypeNameFormat.empty;
+    case "well_known":
+      return NFCTypeNameFormat.well_known;
+    case "mime_media":
+      return NFCTypeNameFormat.mime_media;
+    case "absolute_uri":
+      return NFCTypeNameFormat.absolute_uri;
+    case "external_type":
+      return NFCTypeNameFormat.external;
+    case "unchanged":
+      return NFCTypeNameFormat.unchanged;
+    default:
+      return NFCTypeNameFormat.unknown;
+  }
+}
+
+/// NDEFRawRecord is a record with its type, id and payload as bytes, for
+/// writing with [NDEFTag.writeRawRecords].
+class NDEFRawRecord {
+  final NFCTypeNameFormat tnf;
+  final Uint8List type;
+  final Uint8List? id;
+  final Uint8List payload;
+
+  NDEFRawRecord({
+    required this.tnf,
+    required this.type,
+    this.id,
+    required this.payload,
+  });
+
+  Map<String, dynamic> _toMap() {
+    return {
+      "tnf": tnf.index,
+      "type": type,
+      "id": id ?? Uint8List(0),
+      "payload": payload,
+    };
+  }
+}
+
 class NDEFTag implements NFCTag {
   final String? id;
   final bool writable;
 
   NDEFTag._internal(this.id, this.writable);
 
-  Future write(NDEFMessage message) async {
+  /// write writes [message] to the tag.
+  ///
+  /// If [skipIfIdentical] is true, the message is only written if the tag
+  /// doesn't already contain it. Writing is the slowest tag operation, so
+  /// this speeds up rewriting tags that are mostly up to date. This is only
+  /// supported on Android.
+  ///
+  /// Returns false if the write was skipped.
+  Future<bool> write(NDEFMessage message, {bool skipIfIdentical = false}) {
+    return _write("writeNDEF", {
+      // Writes go to this tag, even if other tags have been read since
+      "id": id,
+      "message": message._toMap(),
+      "skip_if_identical": skipIfIdentical,
+    });
+  }
+
+  /// writeRaw writes an already serialized NDEF [message] to the tag. The
+  /// bytes are passed to the platform as they are, which avoids building
+  /// and converting an [NDEFMessage] for large binary payloads.
+  ///
+  /// Android only
+  Future<bool> writeRaw(Uint8List message, {bool skipIfIdentical = false}) {
+    return _write("writeRawNDEF", {
+      "id": id,
+      "message": message,
+      "skip_if_identical": skipIfIdentical,
+    });
+  }
+
+  /// writeRawRecords writes a message made of [records] to the tag. Like
+  /// [writeRaw], the records' bytes are passed to the platform as they are.
+  ///
+  /// Android only
+  Future<bool> writeRawRecords(List<NDEFRawRecord> records,
+      {bool skipIfIdentical = false}) {
+    return _write("writeRawNDEF", {
+      "id": id,
+      "records": records.map((record) => record._toMap()).toList(),
+      "skip_if_identical": skipIfIdentical,
+    });
+  }
+
+  Future<bool> _write(String method, Map<String, dynamic> arguments) async {
     if (!writable) {
       throw NFCTagUnwritableException();
     }
     try {
-      return NFC._channel.invokeMethod("writeNDEF", {
-        // TODO: Is id ever used by the native layer?
-        "id": id,
-        "message": message._toMap(),
-      });
+      final written = await NFC._channel.invokeMethod(method, arguments);
+      return written ?? true;
     } on PlatformException catch (e) {
       switch (e.code) {
         case "NFCUnexpectedError":
@@ -523,6 +1615,98 @@ class NDEFTag implements NFCTag {
       throw error;
     }
   }
+
+  /// openSession opens a session on the tag, which keeps the tag connected
+  /// until it is closed. Reading and writing through a session avoids
+  /// reconnecting to the tag for every operation.
+  ///
+  /// The session is closed by the platform if the tag is removed or if it
+  /// isn't used for [idleTimeout]. [presenceCheckInterval] sets how often
+  /// the tag's presence is checked in the background. Operations on a
+  /// closed session throw [NFCSessionClosedException].
+  ///
+  /// Android only
+  Future<NFCTagSession> openSession({
+    Duration idleTimeout = const Duration(seconds: 10),
+    Duration presenceCheckInterval = const Duration(milliseconds: 250),
+  }) async {
+    try {
+      final handle = await NFC._channel.invokeMethod("openSession", {
+        "id": id,
+        "idle_timeout_ms": idleTimeout.inMilliseconds,
+        "presence_check_interval_ms": presenceCheckInterval.inMilliseconds,
+      });
+      assert(handle is int);
+      return NFCTagSession._internal(handle as int, id);
+    } on PlatformException catch (e) {
+      throw _mapException(e);
+    }
+  }
+}
+
+/// NFCTagTechnology is a tag technology raw commands can be sent with.
+enum NFCTagTechnology {
+  nfcA,
+  nfcB,
+  nfcF,
+  nfcV,
+  isoDep,
+}
+
+const _tagTechnologyNames = {
+  NFCTagTechnology.nfcA: "nfc_a",
+  NFCTagTechnology.nfcB: "nfc_b",
+  NFCTagTechnology.nfcF: "nfc_f",
+  NFCTagTechnology.nfcV: "nfc_v",
+  NFCTagTechnology.isoDep: "iso_dep",
+};
+
+/// NFCTagSession is a live connection to a tag, opened with
+/// [NDEFTag.openSession].
+class NFCTagSession {
+  final int _handle;
+
+  /// tagId is the id of the tag the session is connected to.
+  final String? tagId;
+
+  NFCTagSession._internal(this._handle, this.tagId);
+
+  /// readNDEF reads the tag's NDEF message.
+  Future<NDEFMessage> readNDEF() async {
+    final Map tag = await _invoke("sessionReadNDEF");
+    return NDEFMessage._fromMap(tag);
+  }
+
+  /// writeNDEF writes [message] to the tag.
+  Future<void> writeNDEF(NDEFMessage message) async {
+    await _invoke("sessionWriteNDEF", {"message": message._toMap()});
+  }
+
+  /// transceive sends a raw command to the tag using [technology] and
+  /// returns the tag's response.
+  Future<Uint8List> transceive(Uint8List data,
+      {NFCTagTechnology technology = NFCTagTechnology.nfcA}) async {
+    return await _invoke("sessionTransceive", {
+      "data": data,
+      "technology": _tagTechnologyNames[technology],
+    });
+  }
+
+  /// close closes the session and disconnects from the tag.
+  Future<void> close() async {
+    await _invoke("closeSession");
+  }
+
+  Future<dynamic> _invoke(String method, [Map? arguments]) async {
+    try {
+      return await NFC._channel.invokeMethod(method, {
+        "session": _handle,
+        ...?arguments,
+      });
+    } on PlatformException catch (e) {
+      throw _mapException(e);
+    }
+  }
 }
 
 Exception _mapException(dynamic error) {
@@ -549,6 +1733,24 @@ Exception _mapException(dynamic error) {
       case "NDEFBadFormatError":
         error = NDEFBadFormatException(error.message);
         break;
+      case "NFCSessionClosed":
+        error = NFCSessionClosedException(error.details?["reason"]);
+        break;
+      case "NFCTagUnavailable":
+        error = NFCTagUnavailableException();
+        break;
+      case "NDEFUnsupported":
+        error = NDEFUnsupportedException();
+        break;
+      case "NFCTagSizeTooSmallError":
+        error = NFCTagSizeTooSmallException(error.details["maxSize"] ?? 0);
+        break;
+      case "NFCMultipleReaderModes":
+        error = NFCMultipleReaderModesException();
+        break;
+      case "NFCConflictingOptions":
+        error = NFCConflictingOptionsException(error.message);
+        break;
     }
   }
   return error;
@@ -16,6 +16,19 @@ class NFCMultipleReaderModesException implements Exception {
       "started reading with a different reader mode than the one already in use";
 }
 
+/// NFCConflictingOptionsException is thrown when reading is started with
+/// options that differ from the ones used by a stream that is already
+/// reading. The options apply to every stream, so all streams reading at
+/// the same time must use the same options.
+class NFCConflictingOptionsException implements Exception {
+  final String? message;
+
+  NFCConflictingOptionsException(this.message);
+
+  @override
+  String toString() => message ?? 'NFCConflictingOptionsException';
+}
+
 /// NFCUserCanceledSessionException is thrown on iOS when the users cancels the
 /// reading session (Clicks OK/done).
 class NFCUserCanceledSessionException implements Exception {
@@ -133,3 +146,16 @@ class NFCUpdateTagException implements Exception {
   @override
   String toString() => message;
 }
+
+/// NFCSessionClosedException is thrown when a closed NFCTagSession is
+/// used.
+class NFCSessionClosedException implements Exception {
+  /// reason is why the session was closed: `closed` if it was closed by
+  /// the app, `lost` if the tag was removed or `idle` if it timed out.
+  final String? reason;
+
+  NFCSessionClosedException(this.reason);
+
+  @override
+  String toString() => "the tag session is closed (${reason ?? "closed"})";
+}
@@ -0,0 +1,209 @@
+import 'dart:convert';
+import 'dart:typed_data';
+
+/// uriPrefixes maps the identifier code of a well known URI record to the
+/// prefix it abbreviates.
+const List<String> uriPrefixes = [
+  "", // 0x00
+  "http://www.", // 0x01
+  "https://www.", // 0x02
+  "http://", // 0x03
+  "https://", // 0x04
+  "tel:", // 0x05
+  "mailto:", // 0x06
+  "ftp://anonymous:anonymous@", // 0x07
+  "ftp://ftp.", // 0x08
+  "ftps://", // 0x09
+  "sftp://", // 0x0A
+  "smb://", // 0x0B
+  "nfs://", // 0x0C
+  "ftp://", // 0x0D
+  "dav://", // 0x0E
+  "news:", // 0x0F
+  "telnet://", // 0x10
+  "imap:", // 0x11
+  "rtsp://", // 0x12
+  "urn:", // 0x13
+  "pop:", // 0x14
+  "sip:", // 0x15
+  "sips:", // 0x16
+  "tftp:", // 0x17
+  "btspp://", // 0x18
+  "btl2cap://", // 0x19
+  "btgoep://", // 0x1A
+  "tcpobex://", // 0x1B
+  "irdaobex://", // 0x1C
+  "file://", // 0x1D
+  "urn:epc:id:", // 0x1E
+  "urn:epc:tag:", // 0x1F
+  "urn:epc:pat:", // 0x20
+  "urn:epc:raw:", // 0x21
+  "urn:epc:", // 0x22
+  "urn:nfc:", // 0x23
+];
+
+/// DecodedPayload holds the strings decoded from a record's raw payload, in
+/// the same form the native side sends them when decoding eagerly.
+class DecodedPayload {
+  final String payload;
+  final String data;
+  final String? languageCode;
+
+  const DecodedPayload(this.payload, this.data, this.languageCode);
+}
+
+/// decodePayload decodes [raw] the way the Android plugin does: well known
+/// URI records get their prefix expanded, well known text records are split
+/// into language code and text, and every other record is read as UTF-8.
+///
+/// Like the Android plugin, it throws a [FormatException] if a text record's
+/// language code is longer than its payload.
+DecodedPayload decodePayload(bool wellKnown, String type, Uint8List raw) {
+  if (wellKnown && type == "U" && raw.isNotEmpty) {
+    final data = decodeUtf8(Uint8List.sublistView(raw, 1));
+    final prefix = raw[0] < uriPrefixes.length ? uriPrefixes[raw[0]] : "";
+    return DecodedPayload(prefix + data, data, null);
+  } else if (wellKnown && type == "T" && raw.isNotEmpty) {
+    final status = raw[0];
+    final utf16 = (status & 0x80) != 0;
+    final languageCodeLength = status & 0x3F;
+    if (languageCodeLength > raw.length - 1) {
+      throw FormatException(
+          "language code of text record is longer than its payload");
+    }
+    final decode = utf16 ? decodeUtf16 : decodeUtf8;
+    return DecodedPayload(
+      decode(Uint8List.sublistView(raw, 1)),
+      decode(Uint8List.sublistView(raw, 1 + languageCodeLength)),
+      ascii.decode(Uint8List.sublistView(raw, 1, 1 + languageCodeLength),
+          allowInvalid: true),
+    );
+  }
+  final payload = decodeUtf8(raw);
+  return DecodedPayload(payload, payload, null);
+}
+
+String decodeUtf8(Uint8List bytes) => utf8.decode(bytes, allowMalformed: true);
+
+/// decodeUtf16 decodes UTF-16 bytes. Like Java's UTF-16 charset it honours a
+/// byte order mark and defaults to big endian.
+String decodeUtf16(Uint8List bytes) {
+  var offset = 0;
+  var littleEndian = false;
+  if (bytes.length >= 2) {
+    if (bytes[0] == 0xFE && bytes[1] == 0xFF) {
+      offset = 2;
+    } else if (bytes[0] == 0xFF && bytes[1] == 0xFE) {
+      offset = 2;
+      littleEndian = true;
+    }
+  }
+  final units = List<int>.filled((bytes.length - offset) >> 1, 0);
+  for (var i = 0; i < units.length; i++) {
+    final a = bytes[offset + i * 2];
+    final b = bytes[offset + i * 2 + 1];
+    units[i] = littleEndian ? (b << 8) | a : (a << 8) | b;
+  }
+  return String.fromCharCodes(units);
+}
+
+/// hexEncode encodes [bytes] as an uppercase hex string, matching the tag id
+/// format used by the native side.
+String hexEncode(Uint8List bytes) {
+  const digits = "0123456789ABCDEF";
+  final buffer = StringBuffer();
+  for (final b in bytes) {
+    buffer.write(digits[b >> 4]);
+    buffer.write(digits[b & 0x0F]);
+  }
+  return buffer.toString();
+}
+
+/// hexDecode decodes a hex string such as a tag id. Malformed input decodes
+/// to as many bytes as could be parsed.
+Uint8List hexDecode(String hex) {
+  final bytes = Uint8List(hex.length ~/ 2);
+  for (var i = 0; i < bytes.length; i++) {
+    final byte = int.tryParse(hex.substring(i * 2, i * 2 + 2), radix: 16);
+    if (byte == null) {
+      return Uint8List.sublistView(bytes, 0, i);
+    }
+    bytes[i] = byte;
+  }
+  return bytes;
+}
+
+/// TagFrame reads the binary tag frames produced by the Android plugin's
+/// TagFrameEncoder. See TagFrameEncoder.java for the layout.
+///
+/// Nothing is copied when a frame is parsed; ids, types and payloads are
+/// views into the frame.
+class TagFrame {
+  static const int version = 1;
+  static const int _flagWritable = 0x01;
+  static const int _recordEntrySize = 20;
+
+  final Uint8List _bytes;
+  final ByteData _data;
+  final int _idOffset;
+  final int _typeOffset;
+  final int _recordTableOffset;
+  final int recordCount;
+  final int _regionOffset;
+
+  TagFrame._(this._bytes, this._data, this._idOffset, this._typeOffset,
+      this._recordTableOffset, this.recordCount, this._regionOffset);
+
+  factory TagFrame.parse(Uint8List bytes) {
+    final data = ByteData.sublistView(bytes);
+    final frameLength = data.getUint32(0);
+    if (frameLength + 4 > bytes.length) {
+      throw FormatException("truncated tag frame");
+    }
+    if (data.getUint8(4) != version) {
+      throw FormatException("unsupported tag frame version");
+    }
+    final idOffset = 6;
+    final typeOffset = idOffset + 1 + data.getUint8(idOffset);
+    final countOffset = typeOffset + 1 + data.getUint8(typeOffset);
+    final recordCount = data.getUint16(countOffset);
+    final recordTableOffset = countOffset + 2;
+    final regionOffset =
+        recordTableOffset + recordCount * _recordEntrySize + 4;
+    return TagFrame._(bytes, data, idOffset, typeOffset, recordTableOffset,
+        recordCount, regionOffset);
+  }
+
+  bool get writable => (_data.getUint8(5) & _flagWritable) != 0;
+
+  Uint8List get tagId => Uint8List.sublistView(
+      _bytes, _idOffset + 1, _idOffset + 1 + _data.getUint8(_idOffset));
+
+  String get tagType => utf8.decode(Uint8List.sublistView(_bytes,
+      _typeOffset + 1, _typeOffset + 1 + _data.getUint8(_typeOffset)));
+
+  int _entry(int index) => _recordTableOffset + index * _recordEntrySize;
+
+  int tnf(int index) => _data.getUint8(_entry(index));
+
+  Uint8List type(int index) {
+    final entry = _entry(index);
+    final start = _regionOffset + _data.getUint32(entry + 4);
+    return Uint8List.sublistView(
+        _bytes, start, start + _data.getUint8(entry + 1));
+  }
+
+  Uint8List id(int index) {
+    final entry = _entry(index);
+    final start = _regionOffset + _data.getUint32(entry + 8);
+    return Uint8List.sublistView(
+        _bytes, start, start + _data.getUint8(entry + 2));
+  }
+
+  Uint8List payload(int index) {
+    final entry = _entry(index);
+    final start = _regionOffset + _data.getUint32(entry + 12);
+    return Uint8List.sublistView(
+        _bytes, start, start + _data.getUint32(entry + 16));
+  }
+}
@@ -0,0 +1,47 @@
+import 'dart:typed_data';
+
+import 'package:flutter_test/flutter_test.dart';
+import 'package:nfc_in_flutter/src/ndef_codec.dart';
+
+void main() {
+  test("decodes a text record", () {
+    final decoded = decodePayload(
+        true, "T", Uint8List.fromList([0x02, 0x65, 0x6E, 0x68, 0x69]));
+    expect(decoded.languageCode, "en");
+    expect(decoded.data, "hi");
+    expect(decoded.payload, "enhi");
+  });
+
+  test("decodes a text record without text", () {
+    final decoded =
+        decodePayload(true, "T", Uint8List.fromList([0x02, 0x65, 0x6E]));
+    expect(decoded.languageCode, "en");
+    expect(decoded.data, "");
+  });
+
+  test("rejects a language code longer than the payload", () {
+    expect(
+        () => decodePayload(
+            true, "T", Uint8List.fromList([0x05, 0x65, 0x6E])),
+        throwsFormatException);
+  });
+
+  test("expands URI prefixes", () {
+    final decoded = decodePayload(
+        true, "U", Uint8List.fromList([0x04, 0x61, 0x2E, 0x62]));
+    expect(decoded.data, "a.b");
+    expect(decoded.payload, "https://a.b");
+  });
+
+  test("ignores undefined URI prefixes", () {
+    final decoded = decodePayload(true, "U", Uint8List.fromList([0x7F, 0x78]));
+    expect(decoded.payload, "x");
+  });
+
+  test("decodes other records as UTF-8", () {
+    final decoded =
+        decodePayload(false, "T", Uint8List.fromList([0x05, 0x65, 0x6E]));
+    expect(decoded.payload, "\u0005en");
+    expect(decoded.languageCode, isNull);
+  });
+}
@@ -1 +1,49 @@
-void main() {}
+import 'package:flutter/services.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:nfc_in_flutter/nfc_in_flutter.dart';
+
+void main() {
+  TestWidgetsFlutterBinding.ensureInitialized();
+  final messenger =
+      TestDefaultBinaryMessengerBinding.instance!.defaultBinaryMessenger;
+  const channel = MethodChannel("nfc_in_flutter");
+  const tagChannel = MethodChannel("nfc_in_flutter/tags");
+
+  // startError makes startNDEFReading fail with code
+  void startError(String code) {
+    messenger.setMockMethodCallHandler(channel, (call) async {
+      if (call.method == "startNDEFReading") {
+        throw PlatformException(code: code, message: code);
+      }
+      return null;
+    });
+  }
+
+  setUp(() {
+    // The tag stream is listened to, but never sends anything
+    messenger.setMockMethodCallHandler(tagChannel, (call) async => null);
+  });
+
+  tearDown(() {
+    messenger.setMockMethodCallHandler(channel, null);
+    messenger.setMockMethodCallHandler(tagChannel, null);
+  });
+
+  test("readNDEF reports conflicting options", () async {
+    startError("NFCConflictingOptions");
+    await expectLater(NFC.readNDEF(maxBatchSize: 8),
+        emitsError(isA<NFCConflictingOptionsException>()));
+  });
+
+  test("readNDEF reports multiple reader modes", () async {
+    startError("NFCMultipleReaderModes");
+    await expectLater(
+        NFC.readNDEF(), emitsError(isA<NFCMultipleReaderModesException>()));
+  });
+
+  test("readNDEFStream reports conflicting options", () async {
+    startError("NFCConflictingOptions");
+    await expectLater(NFC.readNDEFStream(chunkSize: 16),
+        emitsError(isA<NFCConflictingOptionsException>()));
+  });
+}